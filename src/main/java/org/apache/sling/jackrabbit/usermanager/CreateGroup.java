@@ -71,4 +71,23 @@ public interface CreateGroup {
         return createGroup(jcrSession, null, properties, changes);
     }
 
+    /**
+     * Calculate unique names for a batch of new groups from the supplied
+     * properties (per SLING-10902), for example for a bulk import.  The names
+     * are unique against each other and against the existing authorizables,
+     * which are looked up for the whole batch at once instead of name by name.  The names are not
+     * reserved, so the groups should be created right away.
+     *
+     * @param jcrSession the JCR session of the user creating the groups
+     * @param propertiesList the properties of each group, as would be passed to create it
+     * @return the name of each group in the order of the properties, null where no name could be calculated
+     * @throws RepositoryException if the names can't be calculated
+     * @since 2.6.0
+     */
+    public default List<String> getPrincipalNames(Session jcrSession,
+                            List<Map<String, ?>> propertiesList
+                ) throws RepositoryException {
+        throw new UnsupportedOperationException("Calculating the names of a batch of groups is not supported");
+    }
+
 }
@@ -78,4 +78,24 @@ public interface CreateUser {
                 ) throws RepositoryException {
         return createUser(jcrSession, null, password, passwordConfirm, properties, changes);
     }
+
+    /**
+     * Calculate unique names for a batch of new users from the supplied
+     * properties (per SLING-10902), for example for a bulk import.  The names
+     * are unique against each other and against the existing authorizables,
+     * which are looked up for the whole batch at once instead of name by name.  The names are not
+     * reserved, so the users should be created right away.
+     *
+     * @param jcrSession the JCR session of the user creating the users
+     * @param propertiesList the properties of each user, as would be passed to create it
+     * @return the name of each user in the order of the properties, null where no name could be calculated
+     * @throws RepositoryException if the names can't be calculated
+     * @since 2.6.0
+     */
+    public default List<String> getPrincipalNames(Session jcrSession,
+                            List<Map<String, ?>> propertiesList
+                ) throws RepositoryException {
+        throw new UnsupportedOperationException("Calculating the names of a batch of users is not supported");
+    }
+
 }
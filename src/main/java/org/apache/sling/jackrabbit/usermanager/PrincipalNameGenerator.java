@@ -16,6 +16,8 @@
  */
 package org.apache.sling.jackrabbit.usermanager;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.jackrabbit.oak.spi.security.user.AuthorizableType;
@@ -56,4 +58,32 @@ public interface PrincipalNameGenerator {
             PrincipalNameFilter principalNameFilter,
             PrincipalNameGenerator defaultPrincipalNameGenerator);
 
+    /**
+     * Get the to-be-created principal name candidates for a batch of principals,
+     * for example records of a bulk import. The candidates are not made unique
+     * yet, neither against each other nor against the repository.
+     *
+     * Implementations can override this to share work between the records, the
+     * default calls {@link #getPrincipalName(Map, AuthorizableType, PrincipalNameFilter, PrincipalNameGenerator)}
+     * for each of them.
+     *
+     * @param parametersList the parameters map of each principal
+     * @param type the type of principal
+     * @param principalNameFilter for filtering what characters are allowed in a name
+     * @param defaultPrincipalNameGenerator the default principal name generator
+     *
+     * @return the info about each principal name in the order of the parameter maps, with null
+     *          entries for the principals this generator is unable to name
+     * @since 2.6.0
+     */
+    public default List<NameInfo> getPrincipalNames(List<Map<String, ?>> parametersList, AuthorizableType type,
+            PrincipalNameFilter principalNameFilter,
+            PrincipalNameGenerator defaultPrincipalNameGenerator) {
+        List<NameInfo> result = new ArrayList<>(parametersList.size());
+        for (Map<String, ?> parameters : parametersList) {
+            result.add(getPrincipalName(parameters, type, principalNameFilter, defaultPrincipalNameGenerator));
+        }
+        return result;
+    }
+
 }
@@ -17,6 +17,10 @@
 
 package org.apache.sling.jackrabbit.usermanager.impl;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
@@ -25,30 +29,62 @@ import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.sling.api.adapter.AdapterFactory;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange.Type;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChangeListener;
+import org.jetbrains.annotations.NotNull;
 import org.osgi.service.component.annotations.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Component(service = AdapterFactory.class, property = {
+/**
+ * Adapts a {@link ResourceResolver} to the {@link Authorizable} of its user.
+ * <p>
+ * The result is remembered in the property map of the resolver so repeated
+ * adaptations during a request share one lookup. The remembered value is
+ * dropped when the {@link org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChangeDispatcher}
+ * reports a change to a user, which is when a refresh of the resolver could
+ * observe a different authorizable.
+ * </p>
+ */
+@Component(service = { AdapterFactory.class, AuthorizableChangeListener.class }, property = {
         AdapterFactory.ADAPTER_CLASSES + "=org.apache.jackrabbit.api.security.user.User",
         AdapterFactory.ADAPTER_CLASSES + "=org.apache.jackrabbit.api.security.user.Authorizable",
         AdapterFactory.ADAPTABLE_CLASSES + "=org.apache.sling.api.resource.ResourceResolver" })
-public class AuthorizableAdapterFactory implements AdapterFactory {
+public class AuthorizableAdapterFactory implements AdapterFactory, AuthorizableChangeListener {
+
+    /**
+     * the key of the remembered authorizable in the resolver property map
+     */
+    static final String PROPERTY_CURRENT_USER = AuthorizableAdapterFactory.class.getName() + ".currentUser";
 
     /**
      * default log
      */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    /**
+     * incremented whenever remembered authorizables may have become stale
+     */
+    private final AtomicLong generation = new AtomicLong();
+
     @Override
     public <T> T getAdapter(final Object adaptable, final Class<T> type) {
-        Session session = ((ResourceResolver) adaptable).adaptTo(Session.class);
+        ResourceResolver resolver = (ResourceResolver) adaptable;
+        Session session = resolver.adaptTo(Session.class);
         if (session instanceof JackrabbitSession) {
+            Map<String, Object> propertyMap = resolver.getPropertyMap();
+            Object memo = propertyMap.get(PROPERTY_CURRENT_USER);
+            long current = generation.get();
+            if (memo instanceof CurrentUser && ((CurrentUser) memo).isValid(session, current)) {
+                return cast(((CurrentUser) memo).authorizable, type);
+            }
             JackrabbitSession jackrabbitSession = (JackrabbitSession) session;
             try {
                 UserManager um = jackrabbitSession.getUserManager();
                 Authorizable authorizable = um.getAuthorizable(jackrabbitSession.getUserID());
-                return type.cast(authorizable);
+                propertyMap.put(PROPERTY_CURRENT_USER, new CurrentUser(session, current, authorizable));
+                return cast(authorizable, type);
             } catch (RepositoryException e) {
                 log.warn("User cannot read own authorizable.", e);
             }
@@ -56,4 +92,44 @@ public class AuthorizableAdapterFactory implements AdapterFactory {
         return null;
     }
 
+    private static <T> T cast(Authorizable authorizable, Class<T> type) {
+        return type.isInstance(authorizable) ? type.cast(authorizable) : null;
+    }
+
+    // ---------- AuthorizableChangeListener ----------------------------------
+
+    @Override
+    public void onChange(@NotNull List<AuthorizableChange> changes) {
+        for (AuthorizableChange change : changes) {
+            if (!change.isGroup() && change.getType() != Type.MEMBERSHIP_CHANGED) {
+                generation.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * The authorizable remembered for a resolver
+     */
+    private static final class CurrentUser {
+        private final Session session;
+        private final long generation;
+        private final Authorizable authorizable;
+
+        private CurrentUser(Session session, long generation, Authorizable authorizable) {
+            this.session = session;
+            this.generation = generation;
+            this.authorizable = authorizable;
+        }
+
+        private boolean isValid(Session currentSession, long currentGeneration) {
+            return session == currentSession && generation == currentGeneration;
+        }
+    }
+
 }
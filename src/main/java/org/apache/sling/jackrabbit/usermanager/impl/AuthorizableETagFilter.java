@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.jackrabbit.usermanager.impl.resource.AuthorizableResource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Adds an ETag derived from the {@link AuthorizableResource#getVersionToken() version token}
+ * to the plain JSON rendition of users and groups and answers conditional
+ * requests whose If-None-Match header matches with 304 (Not Modified) before
+ * the resource gets rendered.
+ * <p>
+ * Renditions with selectors, like the privileges info, depend on more than
+ * the authorizable itself, for example the access control entries, so they
+ * are left alone.
+ * </p>
+ */
+@Component(service = Filter.class,
+    property={
+            "service.description=ETag support for users and groups",
+            "service.vendor=The Apache Software Foundation",
+            "sling.filter.scope=REQUEST",
+            "sling.filter.methods=GET",
+            "sling.filter.methods=HEAD",
+            "sling.filter.extensions=json"
+    })
+public class AuthorizableETagFilter implements Filter {
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_MATCH = "If-Match";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        // nothing to do
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (request instanceof SlingHttpServletRequest && response instanceof SlingHttpServletResponse) {
+            SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+            String method = slingRequest.getMethod();
+            Resource resource = slingRequest.getResource();
+            if (("GET".equals(method) || "HEAD".equals(method))
+                    && resource instanceof AuthorizableResource
+                    && isPlainJson(slingRequest.getRequestPathInfo())) {
+                String etag = toETag(((AuthorizableResource) resource).getVersionToken());
+                if (etag != null) {
+                    SlingHttpServletResponse slingResponse = (SlingHttpServletResponse) response;
+                    slingResponse.setHeader(HEADER_ETAG, etag);
+                    if (matches(slingRequest.getHeader(HEADER_IF_NONE_MATCH), etag, true)) {
+                        slingResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        return;
+                    }
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+        // nothing to do
+    }
+
+    /**
+     * Only the JSON rendition of the properties is derived from the version token
+     */
+    private static boolean isPlainJson(RequestPathInfo pathInfo) {
+        return "json".equals(pathInfo.getExtension()) && pathInfo.getSelectorString() == null;
+    }
+
+    /**
+     * Quote the version token for usage as an ETag
+     *
+     * @param versionToken the version token
+     * @return the ETag or null if the token is null
+     */
+    public static @Nullable String toETag(@Nullable String versionToken) {
+        return versionToken == null ? null : '"' + versionToken + '"';
+    }
+
+    /**
+     * Checks if the value of an If-Match or If-None-Match header matches the ETag
+     *
+     * @param header the header value, may be null
+     * @param etag the current ETag
+     * @param weak true for the weak comparison of If-None-Match, false for the
+     *          strong comparison of If-Match where weak tags never match
+     * @return true if the header is "*" or lists the ETag
+     */
+    public static boolean matches(@Nullable String header, @NotNull String etag, boolean weak) {
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                if (!weak) {
+                    continue;
+                }
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || etag.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
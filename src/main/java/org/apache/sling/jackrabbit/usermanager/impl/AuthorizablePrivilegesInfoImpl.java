@@ -30,12 +30,12 @@ import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
-import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
-import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
 import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.jackrabbit.usermanager.AuthorizablePrivilegesInfo;
 import org.apache.sling.jackrabbit.usermanager.ChangeUserPassword;
 import org.apache.sling.jackrabbit.usermanager.CreateUser;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache.Capabilities;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
@@ -94,8 +94,6 @@ public class AuthorizablePrivilegesInfoImpl implements AuthorizablePrivilegesInf
      */
     static final String PAR_GROUP_ADMIN_GROUP_NAME = "group.admin.group.name";
 
-    private String usersPath;
-    private String groupsPath;
     private boolean selfRegistrationEnabled;
     private boolean alwaysAllowSelfChangePassword = false;
 
@@ -108,16 +106,11 @@ public class AuthorizablePrivilegesInfoImpl implements AuthorizablePrivilegesInf
         alwaysAllowSelfChangePassword = false;
     }
     
-    @Reference(cardinality=ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
-    private void bindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
-        usersPath = (String)properties.get(UserConstants.PARAM_USER_PATH);
-        groupsPath = (String)properties.get(UserConstants.PARAM_GROUP_PATH);
-    }
-    @SuppressWarnings("unused")
-    private void unbindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
-        usersPath = null;
-        groupsPath = null;
-    }
+    /**
+     * The capabilities of the session users, shared with the servlets
+     */
+    @Reference
+    private EffectiveCapabilityCache capabilityCache;
 
     @Reference(cardinality=ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
     private void bindCreateUser(CreateUser createUser, Map<String, Object> properties) {
@@ -134,24 +127,9 @@ public class AuthorizablePrivilegesInfoImpl implements AuthorizablePrivilegesInf
     public boolean canAddGroup(Session jcrSession) {
         boolean hasRights = false;
         try {
-            UserManager userManager = AccessControlUtil.getUserManager(jcrSession);
-            Authorizable currentUser = userManager.getAuthorizable(jcrSession.getUserID());
-
-            if (currentUser instanceof User && ((User)currentUser).isAdmin()) {
-                hasRights = true; //admin user has full control
-            } else {
-                if (groupsPath != null) {
-                    //check if the non-admin user has sufficient rights on the home folder
-                    AccessControlManager acm = jcrSession.getAccessControlManager();
-                    hasRights = acm.hasPrivileges(groupsPath, new Privilege[] {
-                                            acm.privilegeFromName(Privilege.JCR_READ),
-                                            acm.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL),
-                                            acm.privilegeFromName(Privilege.JCR_MODIFY_ACCESS_CONTROL),
-                                            acm.privilegeFromName(PrivilegeConstants.REP_WRITE),
-                                            acm.privilegeFromName(PrivilegeConstants.REP_USER_MANAGEMENT)
-                                    });
-                }
-            }
+            Capabilities capabilities = capabilityCache.get(null, jcrSession);
+            //admin user has full control, otherwise check if the non-admin user has sufficient rights on the home folder
+            hasRights = capabilities.isAdmin() || capabilities.canManageGroups();
         } catch (RepositoryException e) {
             log.warn("Failed to determine if {} can add a new group", jcrSession.getUserID());
         }
@@ -168,23 +146,9 @@ public class AuthorizablePrivilegesInfoImpl implements AuthorizablePrivilegesInf
             if (selfRegistrationEnabled) {
                 hasRights = true;
             } else {
-                UserManager userManager = AccessControlUtil.getUserManager(jcrSession);
-                Authorizable currentUser = userManager.getAuthorizable(jcrSession.getUserID());
-                if (currentUser instanceof User && ((User)currentUser).isAdmin()) {
-                    hasRights = true;  //admin user has full control
-                } else {
-                    if (usersPath != null) {
-                        //check if the non-admin user has sufficient rights on the home folder
-                        AccessControlManager acm = jcrSession.getAccessControlManager();
-                        hasRights = acm.hasPrivileges(usersPath, new Privilege[] {
-                                                acm.privilegeFromName(Privilege.JCR_READ),
-                                                acm.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL),
-                                                acm.privilegeFromName(Privilege.JCR_MODIFY_ACCESS_CONTROL),
-                                                acm.privilegeFromName(PrivilegeConstants.REP_WRITE),
-                                                acm.privilegeFromName(PrivilegeConstants.REP_USER_MANAGEMENT)
-                                        });
-                    }
-                }
+                Capabilities capabilities = capabilityCache.get(null, jcrSession);
+                //admin user has full control, otherwise check if the non-admin user has sufficient rights on the home folder
+                hasRights = capabilities.isAdmin() || capabilities.canManageUsers();
             }
         } catch (RepositoryException e) {
             log.warn("Failed to determine if {} can add a new user", jcrSession.getUserID());
@@ -196,8 +160,6 @@ public class AuthorizablePrivilegesInfoImpl implements AuthorizablePrivilegesInf
             AuthorizableChecker authorizableChecker, AccessChecker accessChecker) throws RepositoryException {
         boolean hasRights = false;
         UserManager userManager = AccessControlUtil.getUserManager(jcrSession);
-        Authorizable currentUser = userManager.getAuthorizable(jcrSession.getUserID());
-
         Authorizable authorizable = userManager.getAuthorizable(principalId);
 
         if (authorizable == null) {
@@ -207,7 +169,7 @@ public class AuthorizablePrivilegesInfoImpl implements AuthorizablePrivilegesInf
             if (authorizableChecker != null && !authorizableChecker.isValid(authorizable)) {
                 // no rights, so skip the rest
             } else {
-                if (currentUser instanceof User && ((User)currentUser).isAdmin()){
+                if (capabilityCache.get(null, jcrSession).isAdmin()) {
                     hasRights = true; //admin user has full control
                 } else {
                     String path = authorizable.getPath();
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Describes a change to a user or group that was observed in the repository
+ */
+public final class AuthorizableChange {
+
+    /**
+     * The kind of change
+     */
+    public enum Type {
+        /**
+         * The authorizable was added or some of its content changed
+         */
+        CHANGED,
+
+        /**
+         * The authorizable, or some folder containing authorizables, was removed
+         */
+        REMOVED,
+
+        /**
+         * The declared members of the group changed
+         */
+        MEMBERSHIP_CHANGED
+    }
+
+    private final Type type;
+    private final String path;
+    private final String id;
+    private final boolean group;
+
+    public AuthorizableChange(@NotNull Type type, @NotNull String path, @Nullable String id, boolean group) {
+        this.type = type;
+        this.path = path;
+        this.id = id;
+        this.group = group;
+    }
+
+    /**
+     * @return the kind of change
+     */
+    public @NotNull Type getType() {
+        return type;
+    }
+
+    /**
+     * The repository path of the authorizable node.  When the change could not
+     * be attributed to a single authorizable this is the path of the
+     * changed item and everything below it should be considered changed.
+     *
+     * @return the path of the changed item
+     */
+    public @NotNull String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the id of the authorizable or null if it is not known
+     */
+    public @Nullable String getId() {
+        return id;
+    }
+
+    /**
+     * @return true if the authorizable is known to be a group
+     */
+    public boolean isGroup() {
+        return group;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s (%s)", type, path, id);
+    }
+
+}
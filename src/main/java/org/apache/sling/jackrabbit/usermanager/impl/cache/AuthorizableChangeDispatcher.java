@@ -0,0 +1,635 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.jackrabbit.api.observation.JackrabbitEventFilter;
+import org.apache.jackrabbit.api.observation.JackrabbitObservationManager;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange.Type;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listens to repository changes below the users and groups paths, including
+ * changes made on other cluster nodes, and tells the registered
+ * {@link AuthorizableChangeListener} services which authorizables changed.
+ * <p>
+ * Events are collected for a short time and coalesced by authorizable before
+ * they are delivered so a bulk import results in a few notifications instead
+ * of one per item.  When too many changes pile up the listeners are told
+ * to reset instead.
+ * </p>
+ * <p>
+ * The authorizables are resolved with the service user of this bundle, so
+ * that user needs read access to the users and groups paths. The session of
+ * that user is only read from the observation thread: each batch of events is
+ * resolved as it arrives and the delivery thread only hands the resolved
+ * changes to the listeners.
+ * </p>
+ */
+@Component(service = AuthorizableChangeDispatcherMBean.class,
+    property={
+            "service.description=Dispatches observed authorizable changes to the user manager caches",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=AuthorizableChangeDispatcher"
+    })
+@Designate(ocd=AuthorizableChangeDispatcher.Config.class)
+public class AuthorizableChangeDispatcher implements AuthorizableChangeDispatcherMBean {
+
+    @ObjectClassDefinition(name ="Apache Sling UserManager Authorizable Change Dispatcher",
+            description = "Tells the user manager caches about changed users and groups")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Coalesce Delay",
+                description = "The number of milliseconds to collect changes before they are delivered.")
+        long coalesce_delay() default DEFAULT_COALESCE_DELAY; //NOSONAR
+
+        @AttributeDefinition(name = "Maximum Pending Changes",
+                description = "The number of changed items above which the caches are reset instead of told about each change.")
+        int max_pending() default DEFAULT_MAX_PENDING; //NOSONAR
+    }
+
+    static final long DEFAULT_COALESCE_DELAY = 500;
+
+    static final int DEFAULT_MAX_PENDING = 10000;
+
+    private static final String REP_MEMBERS_LIST = "/" + UserConstants.REP_MEMBERS_LIST;
+
+    private static final String REP_MEMBERS = "/" + UserConstants.REP_MEMBERS;
+
+    /**
+     * the number of removed authorizable paths to remember the id for
+     */
+    private static final int MAX_KNOWN = 10000;
+
+    private static final int FLAG_CHANGED = 1;
+    private static final int FLAG_REMOVED = 2;
+    private static final int FLAG_MEMBERS = 4;
+
+    /**
+     * default log
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final List<AuthorizableChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Object pendingLock = new Object();
+
+    /**
+     * changed node paths mapped to the kind of change, until they are resolved
+     */
+    private Map<String, Integer> pending = new LinkedHashMap<>();
+
+    /**
+     * the resolved changes until the next delivery
+     */
+    private Map<String, AuthorizableChange> resolved = new LinkedHashMap<>();
+    private boolean overflow;
+    private boolean scheduled;
+
+    /**
+     * authorizable paths mapped to what was resolved for them,
+     * so removals can be reported with the id
+     */
+    private final Map<String, Located> known = new LinkedHashMap<String, Located>(16, 0.75f, true) {
+        private static final long serialVersionUID = 4930012857463152219L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Located> eldest) {
+            return size() > MAX_KNOWN;
+        }
+    };
+
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong changeCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong resetCount = new AtomicLong();
+
+    private long coalesceDelay = DEFAULT_COALESCE_DELAY;
+    private int maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * The JCR Repository used to observe and resolve the authorizables
+     */
+    @Reference
+    private SlingRepository repository;
+
+    /**
+     * To require a service user before becoming active
+     */
+    @Reference
+    private ServiceUserMapped serviceUserMapped;
+
+    private volatile String usersPath;
+    private volatile String groupsPath;
+
+    private ScheduledExecutorService executor;
+    private Session session;
+    private EventListener eventListener;
+    private UserConfiguration userConfiguration;
+
+    @Reference(cardinality=ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC,
+            updated = "updatedUserConfiguration")
+    private synchronized void bindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
+        userConfiguration = userConfig;
+        setRootPaths((String)properties.get(UserConstants.PARAM_USER_PATH),
+                (String)properties.get(UserConstants.PARAM_GROUP_PATH));
+    }
+    @SuppressWarnings("unused")
+    private synchronized void updatedUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
+        bindUserConfiguration(userConfig, properties);
+    }
+    @SuppressWarnings("unused")
+    private synchronized void unbindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
+        // a replacement may have been bound already
+        if (userConfiguration == userConfig) {
+            userConfiguration = null;
+            setRootPaths(null, null);
+        }
+    }
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC)
+    protected void bindAuthorizableChangeListener(AuthorizableChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    protected void unbindAuthorizableChangeListener(AuthorizableChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    // ---------- SCR integration ---------------------------------------------
+
+    @Activate
+    protected synchronized void activate(Config config) {
+        configure(config.coalesce_delay(), config.max_pending());
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sling-usermanager-authorizable-changes");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            observe(repository.loginService(null, null));
+        } catch (RepositoryException e) {
+            log.warn("Unable to observe authorizable changes", e);
+        }
+    }
+
+    /**
+     * Starts observing the users and groups paths with the session
+     */
+    synchronized void observe(@NotNull Session session) {
+        this.session = session;
+        registerListener();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+            executor = null;
+        }
+        if (e != null) {
+            e.shutdownNow();
+            try {
+                e.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            unregisterListener();
+            if (session != null) {
+                session.logout();
+                session = null;
+            }
+        }
+        synchronized (pendingLock) {
+            pending.clear();
+            resolved.clear();
+        }
+    }
+
+    void configure(long coalesceDelay, int maxPending) {
+        this.coalesceDelay = Math.max(0, coalesceDelay);
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    private void registerListener() {
+        if (session == null) {
+            return;
+        }
+        List<String> paths = getRootPaths();
+        if (paths.isEmpty()) {
+            log.debug("No users or groups path known, not observing authorizable changes");
+            return;
+        }
+        try {
+            ObservationManager observationManager = session.getWorkspace().getObservationManager();
+            int eventTypes = Event.NODE_ADDED | Event.NODE_REMOVED
+                    | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+            EventListener listener = this::onEvent;
+            if (observationManager instanceof JackrabbitObservationManager) {
+                JackrabbitEventFilter filter = new JackrabbitEventFilter()
+                        .setAbsPath(paths.get(0))
+                        .setAdditionalPaths(paths.toArray(new String[paths.size()]))
+                        .setIsDeep(true)
+                        .setEventTypes(eventTypes)
+                        .setNoLocal(false);
+                ((JackrabbitObservationManager)observationManager).addEventListener(listener, filter);
+            } else {
+                for (String path : paths) {
+                    observationManager.addEventListener(listener, eventTypes, path, true, null, null, false);
+                }
+            }
+            eventListener = listener;
+            // whatever the listeners hold may have changed while nobody was watching
+            reset();
+        } catch (RepositoryException e) {
+            log.warn("Unable to observe authorizable changes", e);
+        }
+    }
+
+    private void unregisterListener() {
+        if (eventListener != null && session != null && session.isLive()) {
+            try {
+                session.getWorkspace().getObservationManager().removeEventListener(eventListener);
+            } catch (RepositoryException e) {
+                log.debug("Failed to remove the observation listener", e);
+            }
+        }
+        eventListener = null;
+    }
+
+    private @NotNull List<String> getRootPaths() {
+        List<String> paths = new ArrayList<>(2);
+        if (usersPath != null) {
+            paths.add(usersPath);
+        }
+        if (groupsPath != null && !paths.contains(groupsPath)) {
+            paths.add(groupsPath);
+        }
+        return paths;
+    }
+
+    /**
+     * Resolves the events on the observation thread, which is the only one
+     * using the session once the listener is registered
+     */
+    private void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                enqueue(event.getPath(), event.getType());
+            } catch (RepositoryException e) {
+                log.debug("Failed to read the observation event", e);
+            }
+        }
+        Session s = session;
+        try {
+            if (s != null) {
+                s.refresh(false);
+                UserManager userManager = AccessControlUtil.getUserManager(s);
+                resolvePending(path -> {
+                    Located located = null;
+                    if (s.nodeExists(path)) {
+                        Authorizable authorizable = userManager.getAuthorizableByPath(path);
+                        if (authorizable != null) {
+                            located = new Located(path, authorizable.getID(), authorizable.isGroup());
+                        }
+                    }
+                    return located;
+                });
+            }
+        } catch (RepositoryException e) {
+            log.warn("Failed to resolve the changed authorizables", e);
+            synchronized (pendingLock) {
+                pending.clear();
+                resolved.clear();
+                overflow = true;
+            }
+        }
+        schedule();
+    }
+
+    // ---------- Coalescing --------------------------------------------------
+
+    /**
+     * Records the changed item until the next delivery
+     *
+     * @param itemPath the path of the changed node or property
+     * @param eventType the JCR event type
+     */
+    void enqueue(@NotNull String itemPath, int eventType) {
+        eventCount.incrementAndGet();
+        boolean property = (eventType & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED)) != 0;
+        String nodePath = property ? getParentPath(itemPath) : itemPath;
+        int flag;
+        if (nodePath.contains(REP_MEMBERS_LIST) || (property && itemPath.endsWith(REP_MEMBERS))) {
+            flag = FLAG_MEMBERS;
+        } else if (eventType == Event.NODE_REMOVED) {
+            flag = FLAG_REMOVED;
+        } else {
+            flag = FLAG_CHANGED;
+        }
+        synchronized (pendingLock) {
+            if (overflow) {
+                return;
+            }
+            pending.merge(nodePath, flag, (a, b) -> a | b);
+            if (pending.size() > maxPending) {
+                overflow = true;
+                pending.clear();
+            }
+        }
+    }
+
+    private void schedule() {
+        synchronized (pendingLock) {
+            if (scheduled || (resolved.isEmpty() && !overflow)) {
+                return;
+            }
+            scheduled = true;
+        }
+        ScheduledExecutorService e = executor;
+        if (e != null) {
+            try {
+                e.schedule(this::deliver, coalesceDelay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException re) {
+                // shutting down
+                log.debug("Unable to schedule the delivery of authorizable changes", re);
+            }
+        }
+    }
+
+    /**
+     * Resolves the changed paths recorded so far to the authorizables they
+     * belong to and keeps the changes until the next delivery
+     *
+     * @param locator resolves the authorizable at a path
+     */
+    void resolvePending(@NotNull Locator locator) throws RepositoryException {
+        Map<String, Integer> changed;
+        synchronized (pendingLock) {
+            if (overflow || pending.isEmpty()) {
+                return;
+            }
+            changed = pending;
+            pending = new LinkedHashMap<>();
+        }
+        Map<String, AuthorizableChange> changes = resolve(changed, locator);
+        synchronized (pendingLock) {
+            if (overflow) {
+                return;
+            }
+            for (Map.Entry<String, AuthorizableChange> entry : changes.entrySet()) {
+                resolved.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            if (resolved.size() > maxPending) {
+                overflow = true;
+                resolved.clear();
+            }
+        }
+    }
+
+    /**
+     * Delivers the resolved changes to the listeners
+     */
+    void deliver() {
+        Collection<AuthorizableChange> changed;
+        boolean reset;
+        synchronized (pendingLock) {
+            changed = resolved.values();
+            reset = overflow;
+            resolved = new LinkedHashMap<>();
+            overflow = false;
+            scheduled = false;
+        }
+        if (reset) {
+            reset();
+        } else if (!changed.isEmpty()) {
+            List<AuthorizableChange> changes = new ArrayList<>(changed);
+            changeCount.addAndGet(changes.size());
+            batchCount.incrementAndGet();
+            List<AuthorizableChange> unmodifiable = Collections.unmodifiableList(changes);
+            for (AuthorizableChangeListener listener : listeners) {
+                try {
+                    listener.onChange(unmodifiable);
+                } catch (RuntimeException e) {
+                    log.warn("Listener {} failed to process the authorizable changes", listener, e);
+                }
+            }
+        }
+    }
+
+    private @NotNull Map<String, AuthorizableChange> resolve(@NotNull Map<String, Integer> changed, @NotNull Locator locator)
+            throws RepositoryException {
+        Set<String> roots = new TreeSet<>(getRootPaths());
+        Map<String, Optional<Located>> memo = new HashMap<>();
+        Map<String, AuthorizableChange> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : changed.entrySet()) {
+            String nodePath = entry.getKey();
+            int flags = entry.getValue();
+            Located located = locate(nodePath, roots, memo, locator);
+            if (located != null) {
+                synchronized (known) {
+                    known.put(located.path, located);
+                }
+                if ((flags & FLAG_MEMBERS) != 0) {
+                    add(changes, Type.MEMBERSHIP_CHANGED, located.path, located.id, located.group);
+                }
+                if ((flags & (FLAG_CHANGED | FLAG_REMOVED)) != 0) {
+                    // something within the authorizable changed
+                    add(changes, Type.CHANGED, located.path, located.id, located.group);
+                }
+            } else if ((flags & FLAG_REMOVED) != 0) {
+                Located removed;
+                synchronized (known) {
+                    removed = known.remove(nodePath);
+                }
+                if (removed != null) {
+                    add(changes, Type.REMOVED, nodePath, removed.id, removed.group);
+                } else {
+                    add(changes, Type.REMOVED, nodePath, null, false);
+                }
+            } else {
+                // not attributable to a single authorizable, for example
+                // an access control change on a folder
+                add(changes, Type.CHANGED, nodePath, null, false);
+            }
+        }
+        return changes;
+    }
+
+    private static void add(Map<String, AuthorizableChange> changes, Type type, String path, String id, boolean group) {
+        changes.putIfAbsent(type + path, new AuthorizableChange(type, path, id, group));
+    }
+
+    /**
+     * Walks up from the path to the closest authorizable
+     */
+    private @Nullable Located locate(@NotNull String nodePath, @NotNull Set<String> roots,
+            @NotNull Map<String, Optional<Located>> memo, @NotNull Locator locator) throws RepositoryException {
+        List<String> visited = new ArrayList<>();
+        Located located = null;
+        String path = nodePath;
+        while (path.length() > 1 && !roots.contains(path)) {
+            Optional<Located> cached = memo.get(path);
+            if (cached != null) {
+                located = cached.orElse(null);
+                break;
+            }
+            visited.add(path);
+            located = locator.locate(path);
+            if (located != null) {
+                break;
+            }
+            path = getParentPath(path);
+        }
+        Optional<Located> result = Optional.ofNullable(located);
+        for (String p : visited) {
+            memo.put(p, result);
+        }
+        return located;
+    }
+
+    private static @NotNull String getParentPath(@NotNull String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private void reset() {
+        resetCount.incrementAndGet();
+        for (AuthorizableChangeListener listener : listeners) {
+            try {
+                listener.reset();
+            } catch (RuntimeException e) {
+                log.warn("Listener {} failed to reset", listener, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the paths of the users and groups folders, observing the new
+     * paths instead of the old ones
+     */
+    synchronized void setRootPaths(@Nullable String usersPath, @Nullable String groupsPath) {
+        this.usersPath = usersPath;
+        this.groupsPath = groupsPath;
+        unregisterListener();
+        registerListener();
+    }
+
+    // ---------- AuthorizableChangeDispatcherMBean ---------------------------
+
+    @Override
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    @Override
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @Override
+    public long getResetCount() {
+        return resetCount.get();
+    }
+
+    @Override
+    public int getPendingCount() {
+        synchronized (pendingLock) {
+            return pending.size() + resolved.size();
+        }
+    }
+
+    @Override
+    public int getListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Resolves the authorizable stored at a path
+     */
+    @FunctionalInterface
+    interface Locator {
+        @Nullable Located locate(@NotNull String path) throws RepositoryException;
+    }
+
+    /**
+     * The authorizable stored at a path
+     */
+    static final class Located {
+        final String path;
+        final String id;
+        final boolean group;
+
+        Located(@NotNull String path, @NotNull String id, boolean group) {
+            this.path = path;
+            this.id = id;
+            this.group = group;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+/**
+ * JMX view of the {@link AuthorizableChangeDispatcher} statistics
+ */
+public interface AuthorizableChangeDispatcherMBean {
+
+    /**
+     * @return the number of observation events received
+     */
+    long getEventCount();
+
+    /**
+     * @return the number of changes delivered to the listeners
+     */
+    long getChangeCount();
+
+    /**
+     * @return the number of times the listeners were called with changes
+     */
+    long getBatchCount();
+
+    /**
+     * @return the number of times the listeners were told to reset
+     */
+    long getResetCount();
+
+    /**
+     * @return the number of changed paths waiting to be delivered
+     */
+    int getPendingCount();
+
+    /**
+     * @return the number of registered listeners
+     */
+    int getListenerCount();
+
+}
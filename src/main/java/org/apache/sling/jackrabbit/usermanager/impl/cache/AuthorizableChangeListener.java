@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Service interface for caches that want to be told about changes to users
+ * and groups.  Implementations are picked up by the {@link AuthorizableChangeDispatcher}
+ * using the whiteboard pattern.
+ */
+public interface AuthorizableChangeListener {
+
+    /**
+     * Called with the changes that were observed since the previous call.  Each
+     * authorizable appears at most once per change type.
+     *
+     * @param changes the coalesced changes
+     */
+    void onChange(@NotNull List<AuthorizableChange> changes);
+
+    /**
+     * Called when the individual changes are not known, for example after too
+     * many changes happened at once or when observation was (re)started.  Any
+     * cached state should be dropped.
+     */
+    void reset();
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import javax.servlet.ServletRequest;
+
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+
+/**
+ * Remembers, for the duration of a request, what the session user is allowed
+ * to do with users and groups: whether it is the administrator, which
+ * administrator groups it is a member of and whether it has the privileges
+ * to manage the users and groups folders.
+ * <p>
+ * The servlets and the {@link org.apache.sling.jackrabbit.usermanager.AuthorizablePrivilegesInfo}
+ * ask these questions several times while handling the same request. The
+ * answers are kept in an attribute of the request, so they are gone with
+ * the request: they depend on access control entries anywhere up to the
+ * root, which no observation of the users and groups folders can see
+ * change. Without a request nothing is remembered.
+ * </p>
+ */
+@Component(service = { EffectiveCapabilityCache.class, EffectiveCapabilityCacheMBean.class },
+    property={
+            "service.description=Per request cache of the user management capabilities",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=EffectiveCapabilityCache"
+    })
+public class EffectiveCapabilityCache implements EffectiveCapabilityCacheMBean {
+
+    /**
+     * the name of the request attribute holding the capabilities by session
+     */
+    static final String ATTR_CAPABILITIES = EffectiveCapabilityCache.class.getName();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile String usersPath;
+    private volatile String groupsPath;
+
+    @Reference(cardinality=ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private void bindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
+        usersPath = (String)properties.get(UserConstants.PARAM_USER_PATH);
+        groupsPath = (String)properties.get(UserConstants.PARAM_GROUP_PATH);
+    }
+    @SuppressWarnings("unused")
+    private void unbindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
+        usersPath = null;
+        groupsPath = null;
+    }
+
+    /**
+     * Get the capabilities of the session user
+     *
+     * @param request the request being handled or null if there is none
+     * @param session the session to get the capabilities for
+     * @return the capabilities, answered lazily and remembered in the request if there is one
+     */
+    public @NotNull Capabilities get(@Nullable ServletRequest request, @NotNull Session session) {
+        Map<Session, Capabilities> scope = request == null ? null : getScope(request);
+        Capabilities capabilities = scope == null ? null : scope.get(session);
+        if (capabilities != null) {
+            hits.incrementAndGet();
+            return capabilities;
+        }
+        misses.incrementAndGet();
+        capabilities = new Capabilities(session, usersPath, groupsPath);
+        if (scope != null) {
+            scope.put(session, capabilities);
+        }
+        return capabilities;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @NotNull Map<Session, Capabilities> getScope(@NotNull ServletRequest request) {
+        Object scope = request.getAttribute(ATTR_CAPABILITIES);
+        if (!(scope instanceof Map)) {
+            scope = new HashMap<Session, Capabilities>();
+            request.setAttribute(ATTR_CAPABILITIES, scope);
+        }
+        return (Map<Session, Capabilities>)scope;
+    }
+
+    // ---------- EffectiveCapabilityCacheMBean -------------------------------
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * What the user of a session is allowed to do with users and groups.
+     * Like the session itself this is not meant to be used by concurrent
+     * threads.
+     */
+    public static final class Capabilities {
+        private final Session session;
+        private final String usersPath;
+        private final String groupsPath;
+
+        private Boolean admin;
+        private Boolean manageUsers;
+        private Boolean manageGroups;
+        private final Map<String, Boolean> memberships = new HashMap<>();
+
+        private Capabilities(Session session, String usersPath, String groupsPath) {
+            this.session = session;
+            this.usersPath = usersPath;
+            this.groupsPath = groupsPath;
+        }
+
+        private Authorizable getCurrentUser() throws RepositoryException {
+            return AccessControlUtil.getUserManager(session).getAuthorizable(session.getUserID());
+        }
+
+        /**
+         * @return true if the session user is the administrator
+         * @throws RepositoryException if the lookup failed
+         */
+        public boolean isAdmin() throws RepositoryException {
+            if (admin == null) {
+                Authorizable authorizable = getCurrentUser();
+                admin = authorizable instanceof User && ((User)authorizable).isAdmin();
+            }
+            return admin;
+        }
+
+        /**
+         * @param groupId the id of the group
+         * @return true if the session user is a declared or inherited member of the group
+         * @throws RepositoryException if the lookup failed
+         */
+        public boolean isMemberOf(@NotNull String groupId) throws RepositoryException {
+            Boolean member = memberships.get(groupId);
+            if (member == null) {
+                member = false;
+                Authorizable authorizable = getCurrentUser();
+                if (authorizable != null) {
+                    Authorizable group = AccessControlUtil.getUserManager(session).getAuthorizable(groupId);
+                    member = group instanceof Group && ((Group)group).isMember(authorizable);
+                }
+                memberships.put(groupId, member);
+            }
+            return member;
+        }
+
+        /**
+         * @return true if the session user has the privileges needed to create users
+         * @throws RepositoryException if the privileges could not be checked
+         */
+        public boolean canManageUsers() throws RepositoryException {
+            if (manageUsers == null) {
+                manageUsers = hasManagementPrivileges(usersPath);
+            }
+            return manageUsers;
+        }
+
+        /**
+         * @return true if the session user has the privileges needed to create groups
+         * @throws RepositoryException if the privileges could not be checked
+         */
+        public boolean canManageGroups() throws RepositoryException {
+            if (manageGroups == null) {
+                manageGroups = hasManagementPrivileges(groupsPath);
+            }
+            return manageGroups;
+        }
+
+        private boolean hasManagementPrivileges(String path) throws RepositoryException {
+            if (path == null) {
+                return false;
+            }
+            AccessControlManager acm = session.getAccessControlManager();
+            return acm.hasPrivileges(path, new Privilege[] {
+                                    acm.privilegeFromName(Privilege.JCR_READ),
+                                    acm.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL),
+                                    acm.privilegeFromName(Privilege.JCR_MODIFY_ACCESS_CONTROL),
+                                    acm.privilegeFromName(PrivilegeConstants.REP_WRITE),
+                                    acm.privilegeFromName(PrivilegeConstants.REP_USER_MANAGEMENT)
+                            });
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the required type and multiplicity of the properties defined by
+ * a combination of node types, so untyped property writes do not have to
+ * walk the property definitions of the primary type and every mixin each time.
+ * <p>
+ * Everything is dropped when the node type definitions change.
+ * </p>
+ */
+@Component(service = { PropertyDefinitionCache.class, PropertyDefinitionCacheMBean.class },
+    property={
+            "service.description=Cache of the property definitions of node types",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=PropertyDefinitionCache"
+    })
+public class PropertyDefinitionCache implements PropertyDefinitionCacheMBean {
+
+    /**
+     * where the node type definitions are stored
+     */
+    private static final String NODE_TYPES_PATH = "/jcr:system/jcr:nodeTypes";
+
+    /**
+     * The number of combinations to remember before starting over
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    /**
+     * marker for properties without a named definition
+     */
+    private static final Definition UNDEFINED = new Definition(PropertyType.UNDEFINED, false);
+
+    /**
+     * default log
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Definition> definitions = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The JCR Repository used to observe the node type definitions
+     */
+    @Reference
+    private SlingRepository repository;
+
+    /**
+     * To require a service user before becoming active
+     */
+    @Reference
+    private ServiceUserMapped serviceUserMapped;
+
+    private Session observationSession;
+    private EventListener eventListener;
+
+    // ---------- SCR integration ---------------------------------------------
+
+    @Activate
+    protected void activate() {
+        try {
+            observationSession = repository.loginService(null, null);
+            ObservationManager observationManager = observationSession.getWorkspace().getObservationManager();
+            EventListener listener = events -> clear();
+            observationManager.addEventListener(listener,
+                    Event.NODE_ADDED | Event.NODE_REMOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED,
+                    NODE_TYPES_PATH, true, null, null, false);
+            eventListener = listener;
+        } catch (RepositoryException e) {
+            // without knowing about node type changes the cache could serve stale definitions
+            log.warn("Unable to observe node type changes, property definitions will not be cached", e);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (observationSession != null) {
+            if (eventListener != null) {
+                try {
+                    observationSession.getWorkspace().getObservationManager().removeEventListener(eventListener);
+                } catch (RepositoryException e) {
+                    log.debug("Failed to remove the observation listener", e);
+                }
+                eventListener = null;
+            }
+            observationSession.logout();
+            observationSession = null;
+        }
+        definitions.clear();
+    }
+
+    /**
+     * Find the definition of the named property for the node types of the node
+     *
+     * @param propName the name of the property
+     * @param node the node where the property will be set
+     * @return the definition or null if the node types do not define the named property
+     * @throws RepositoryException if the node types can not be read
+     */
+    public @Nullable Definition getDefinition(@NotNull String propName, @NotNull Node node) throws RepositoryException {
+        NodeType primaryNodeType = node.getPrimaryNodeType();
+        NodeType[] mixinNodeTypes = node.getMixinNodeTypes();
+        if (eventListener == null) {
+            return toDefinition(resolvePropertyDefinition(propName, primaryNodeType, mixinNodeTypes));
+        }
+
+        StringBuilder key = new StringBuilder(64).append(primaryNodeType.getName());
+        for (NodeType mixinNodeType : mixinNodeTypes) {
+            key.append('|').append(mixinNodeType.getName());
+        }
+        key.append('/').append(propName);
+        String cacheKey = key.toString();
+
+        Definition definition = definitions.get(cacheKey);
+        if (definition != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            definition = toDefinition(resolvePropertyDefinition(propName, primaryNodeType, mixinNodeTypes));
+            if (definition == null) {
+                definition = UNDEFINED;
+            }
+            if (definitions.size() >= MAX_ENTRIES) {
+                definitions.clear();
+            }
+            definitions.put(cacheKey, definition);
+        }
+        return definition == UNDEFINED ? null : definition;
+    }
+
+    private static @Nullable Definition toDefinition(@Nullable PropertyDefinition propDef) {
+        return propDef == null ? null : new Definition(propDef.getRequiredType(), propDef.isMultiple());
+    }
+
+    /**
+     * Find the PropertyDefinition for the specified propName, first from the
+     * primary type and then from the mixins
+     */
+    private static @Nullable PropertyDefinition resolvePropertyDefinition(@NotNull String propName,
+            @NotNull NodeType primaryNodeType, @NotNull NodeType[] mixinNodeTypes) {
+        PropertyDefinition propDef = resolvePropertyDefinition(propName, primaryNodeType);
+        if (propDef == null) {
+            for (NodeType mixinNodeType : mixinNodeTypes) {
+                propDef = resolvePropertyDefinition(propName, mixinNodeType);
+                if (propDef != null) {
+                    break;
+                }
+            }
+        }
+        return propDef;
+    }
+
+    private static @Nullable PropertyDefinition resolvePropertyDefinition(@NotNull String propName, @NotNull NodeType nodeType) {
+        for (PropertyDefinition pd : nodeType.getPropertyDefinitions()) {
+            if (propName.equals(pd.getName())) {
+                return pd;
+            }
+        }
+        return null;
+    }
+
+    // ---------- PropertyDefinitionCacheMBean --------------------------------
+
+    @Override
+    public int getSize() {
+        return definitions.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        definitions.clear();
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * The parts of a property definition needed to convert the submitted values
+     */
+    public static final class Definition {
+        private final int requiredType;
+        private final boolean multiple;
+
+        Definition(int requiredType, boolean multiple) {
+            this.requiredType = requiredType;
+            this.multiple = multiple;
+        }
+
+        /**
+         * @return the required type, one of the {@link PropertyType} constants
+         */
+        public int getRequiredType() {
+            return requiredType;
+        }
+
+        /**
+         * @return true if the property is multi-valued
+         */
+        public boolean isMultiple() {
+            return multiple;
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+/**
+ * JMX view of the {@link PropertyDefinitionCache} statistics
+ */
+public interface PropertyDefinitionCacheMBean {
+
+    /**
+     * @return the number of cached definitions
+     */
+    int getSize();
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that read the node type definitions
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of times the cache was cleared
+     */
+    long getInvalidationCount();
+
+    /**
+     * Drops all cached definitions
+     */
+    void clear();
+
+}
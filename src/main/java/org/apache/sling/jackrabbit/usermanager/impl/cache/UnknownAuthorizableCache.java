@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange.Type;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Remembers, for a limited time, the principal ids that did not resolve to
+ * either an authorizable or a principal so repeated requests for unknown
+ * users or groups do not have to query the repository each time.
+ * <p>
+ * Entries are kept per session user since the visibility of an authorizable
+ * depends on the access rights of the caller. Entries are dropped when the
+ * authorizable gets created through the create servlets or when the
+ * {@link AuthorizableChangeDispatcher} reports a change.
+ * </p>
+ */
+@Component(service = { UnknownAuthorizableCache.class, UnknownAuthorizableCacheMBean.class, AuthorizableChangeListener.class },
+    property={
+            "service.description=Negative lookup cache for unknown authorizables",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=UnknownAuthorizableCache"
+    })
+@Designate(ocd=UnknownAuthorizableCache.Config.class)
+public class UnknownAuthorizableCache implements UnknownAuthorizableCacheMBean, AuthorizableChangeListener {
+
+    @ObjectClassDefinition(name ="Apache Sling UserManager Unknown Authorizable Cache",
+            description = "Remembers principal ids that did not resolve to a user or group")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Maximum Entries",
+                description = "The maximum number of unknown principal ids to remember. Set to 0 to disable the cache.")
+        int max_entries() default DEFAULT_MAX_ENTRIES; //NOSONAR
+
+        @AttributeDefinition(name = "Time To Live",
+                description = "The number of seconds an unknown principal id is remembered. Set to 0 to disable the cache.")
+        long ttl() default DEFAULT_TTL; //NOSONAR
+    }
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    static final long DEFAULT_TTL = 30;
+
+    private final LongSupplier clock;
+
+    /**
+     * the unknown ids in least recently used order mapped to the time they expire
+     */
+    private final LinkedHashMap<Key, Long> entries = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+        private static final long serialVersionUID = -7392810946427384512L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+            boolean remove = size() > maxEntries;
+            if (remove) {
+                evictions.incrementAndGet();
+            }
+            return remove;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private int maxEntries;
+    private long ttlNanos;
+
+    public UnknownAuthorizableCache() {
+        this(System::nanoTime);
+    }
+
+    UnknownAuthorizableCache(@NotNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    // ---------- SCR integration ---------------------------------------------
+
+    @Activate
+    protected void activate(Config config) {
+        configure(config.max_entries(), config.ttl());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        clear();
+    }
+
+    void configure(int maxEntries, long ttlSeconds) {
+        synchronized (entries) {
+            this.maxEntries = Math.max(0, maxEntries);
+            this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+            entries.clear();
+        }
+    }
+
+    // ---------- Cache operations --------------------------------------------
+
+    /**
+     * Checks if the principal id was recently found to be unknown for the
+     * user of the session.
+     *
+     * @param userId the id of the session user
+     * @param principalId the principal id that was looked up
+     * @return true if the lookup can be skipped
+     */
+    public boolean isUnknown(@Nullable String userId, @NotNull String principalId) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Key key = new Key(userId, principalId);
+        boolean hit = false;
+        synchronized (entries) {
+            Long expires = entries.get(key);
+            if (expires != null) {
+                if (expires - clock.getAsLong() > 0) {
+                    hit = true;
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return hit;
+    }
+
+    /**
+     * Remember that the principal id is unknown for the user of the session.
+     *
+     * @param userId the id of the session user
+     * @param principalId the principal id that was looked up
+     */
+    public void markUnknown(@Nullable String userId, @NotNull String principalId) {
+        if (!isEnabled()) {
+            return;
+        }
+        Key key = new Key(userId, principalId);
+        synchronized (entries) {
+            entries.put(key, clock.getAsLong() + ttlNanos);
+        }
+    }
+
+    /**
+     * Forget about the principal id for every session user
+     *
+     * @param principalId the principal id that became known
+     */
+    public void invalidate(@NotNull String principalId) {
+        synchronized (entries) {
+            Iterator<Key> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().principalId.equals(principalId)) {
+                    it.remove();
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+    }
+
+    // ---------- AuthorizableChangeListener ----------------------------------
+
+    @Override
+    public void onChange(@NotNull List<AuthorizableChange> changes) {
+        for (AuthorizableChange change : changes) {
+            if (change.getType() == Type.CHANGED) {
+                String id = change.getId();
+                if (id == null) {
+                    // the event does not tell which principal ids are affected, so start over
+                    clear();
+                    return;
+                }
+                invalidate(id);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        clear();
+    }
+
+    private boolean isEnabled() {
+        return maxEntries > 0 && ttlNanos > 0;
+    }
+
+    // ---------- UnknownAuthorizableCacheMBean -------------------------------
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    private static final class Key {
+        private final String userId;
+        private final String principalId;
+
+        private Key(String userId, String principalId) {
+            this.userId = userId;
+            this.principalId = principalId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(userId) + principalId.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(userId, other.userId) && principalId.equals(other.principalId);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+/**
+ * JMX view of the {@link UnknownAuthorizableCache} statistics
+ */
+public interface UnknownAuthorizableCacheMBean {
+
+    /**
+     * @return the number of entries currently held
+     */
+    int getSize();
+
+    /**
+     * @return the maximum number of entries held
+     */
+    int getMaxEntries();
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups not answered from the cache
+     */
+    long getMissCount();
+
+    /**
+     * @return the ratio of hits to lookups, or 0 if there were no lookups yet
+     */
+    double getHitRate();
+
+    /**
+     * @return the number of entries dropped to stay within the size bound
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of times entries were invalidated
+     */
+    long getInvalidationCount();
+
+    /**
+     * Drops all entries
+     */
+    void clear();
+
+}
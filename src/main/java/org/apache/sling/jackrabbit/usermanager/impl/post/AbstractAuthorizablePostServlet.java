@@ -17,21 +17,24 @@
 package org.apache.sling.jackrabbit.usermanager.impl.post;
 
 import java.lang.reflect.Array;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
+import javax.jcr.Property;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -39,22 +42,30 @@ import javax.jcr.Value;
 import javax.jcr.ValueFactory;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.PropertyDefinition;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.oak.spi.security.user.AuthorizableType;
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.api.request.builder.Builders;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameFilter;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator.NameInfo;
+import org.apache.sling.jackrabbit.usermanager.impl.AuthorizableETagFilter;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.PropertyDefinitionCache;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.PropertyDefinitionCache.Definition;
+import org.apache.sling.jackrabbit.usermanager.impl.resource.AuthorizableResource;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
+import org.apache.sling.servlets.post.JSONResponse;
 import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.SlingPostConstants;
-import org.apache.sling.servlets.post.impl.helper.DateParser;
 import org.apache.sling.servlets.post.impl.helper.RequestProperty;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -88,22 +99,72 @@ public abstract class AbstractAuthorizablePostServlet extends
 
     public static final String PROP_DATE_FORMAT = "servlet.post.dateFormats";
 
+    /**
+     * Name of the boolean property enabling the comparison of the submitted
+     * values with the stored values so identical values are not written again
+     */
+    public static final String PROP_SKIP_UNCHANGED = "servlet.post.skipUnchangedValues";
+
+    /**
+     * Name of the response property holding the number of skipped properties
+     */
+    public static final String RP_UNCHANGED_COUNT = "unchangedCount";
+
     private static final Logger LOG = LoggerFactory.getLogger(AbstractAuthorizablePostServlet.class);
 
-    private final SecureRandom randomCollisionIndex = new SecureRandom();
+    /**
+     * Finds the next free suffix for generated principal names that are already used
+     */
+    private final transient PrincipalNameAllocator principalNameAllocator = new PrincipalNameAllocator();
+
+    /**
+     * The maximum number of parameter sets to remember the plans of
+     */
+    private static final int MAX_PROPERTY_PLANS = 100;
+
     private transient DateParser dateParser;
 
+    /**
+     * The compiled plans by the set of parameter names they were compiled from
+     */
+    private final transient Map<Set<String>, PropertyPlan> propertyPlans = new ConcurrentHashMap<>();
+    private boolean skipUnchangedValues;
+
     protected transient SystemUserManagerPaths systemUserManagerPaths;
 
     protected void bindSystemUserManagerPaths(SystemUserManagerPaths sump) {
         this.systemUserManagerPaths = sump;
     }
 
+    /**
+     * The optional cache of the property definitions used for untyped properties
+     */
+    protected transient volatile PropertyDefinitionCache propertyDefinitionCache;
+
+    /**
+     * Bind the property definition cache
+     */
+//    @Reference(service = PropertyDefinitionCache.class)
+    protected void bindPropertyDefinitionCache(final PropertyDefinitionCache cache) {
+        this.propertyDefinitionCache = cache;
+    }
+    protected void unbindPropertyDefinitionCache(final PropertyDefinitionCache cache) {
+        if (cache == this.propertyDefinitionCache) {
+            this.propertyDefinitionCache = null;
+        }
+    }
+
     /**
      * The principal name generators
      */
     protected transient LinkedList<PrincipalNameGeneratorHolder> principalNameGenerators = new LinkedList<>();
 
+    /**
+     * Cached array of the principal name generators in ranking order, replaced
+     * on every change so request processing can read it without locking
+     */
+    private transient volatile PrincipalNameGenerator[] cachedPrincipalNameGenerators = new PrincipalNameGenerator[0];
+
     /**
      * The optional principal name filter
      */
@@ -119,14 +180,30 @@ public abstract class AbstractAuthorizablePostServlet extends
             this.principalNameGenerators.add(pngh);
             Collections.sort(this.principalNameGenerators, (o1, o2) -> 
                 Integer.compare(o1.ranking, o2.ranking));
+            updatePrincipalNameGeneratorCache();
         }
     }
     protected void unbindPrincipalNameGenerator(final PrincipalNameGenerator generator) {
         synchronized (principalNameGenerators) {
             principalNameGenerators.removeIf(h -> h.generator == generator);
+            updatePrincipalNameGeneratorCache();
         }
     }
 
+    /**
+     * Update the principal name generator cache
+     * This method is called by sync'ed methods, no need to add additional syncing.
+     */
+    private void updatePrincipalNameGeneratorCache() {
+        final PrincipalNameGenerator[] localCache = new PrincipalNameGenerator[this.principalNameGenerators.size()];
+        int index = 0;
+        for (final PrincipalNameGeneratorHolder current : this.principalNameGenerators) {
+            localCache[index] = current.getGenerator();
+            index++;
+        }
+        this.cachedPrincipalNameGenerators = localCache;
+    }
+
     /**
      * Bind a new principal name filter
      */
@@ -150,11 +227,10 @@ public abstract class AbstractAuthorizablePostServlet extends
         String principalName = null;
         PrincipalNameGenerator defaultPrincipalNameGenerator = null;
         PrincipalNameGenerator principalNameGenerator = null;
-        synchronized (principalNameGenerators) {
-            if (!principalNameGenerators.isEmpty()) {
-                defaultPrincipalNameGenerator = principalNameGenerators.getFirst().getGenerator();
-                principalNameGenerator = principalNameGenerators.getLast().getGenerator();
-            }
+        final PrincipalNameGenerator[] generators = cachedPrincipalNameGenerators;
+        if (generators.length > 0) {
+            defaultPrincipalNameGenerator = generators[0];
+            principalNameGenerator = generators[generators.length - 1];
         }
         if (principalNameGenerator != null) {
             NameInfo nameInfo = principalNameGenerator.getPrincipalName(properties, type, 
@@ -167,29 +243,9 @@ public abstract class AbstractAuthorizablePostServlet extends
             if (nameInfo != null) {
                 principalName = nameInfo.getPrincipalName();
                 if (principalName != null && nameInfo.isMakeUnique()) {
-                    // make sure the name is not already used
+                    // make sure the name is not already used, if it is append the next free suffix
                     UserManager um = AccessControlUtil.getUserManager(jcrSession);
-
-                    // if resulting authorizable exists, add a random suffix until it's not the case
-                    // anymore
-                    final int MAX_TRIES = 1000;
-                    if (um.getAuthorizable(principalName) != null ) {
-                        for (int i=0; i < MAX_TRIES; i++) {
-                            final int uniqueIndex = randomCollisionIndex.nextInt(9999);
-                            String newPrincipalName = principalName + "_" + uniqueIndex;
-                            if (um.getAuthorizable(newPrincipalName) == null) {
-                                // found unused value, so use it
-                                principalName = newPrincipalName;
-                                break;
-                            }
-                        }
-
-                        // Give up after MAX_TRIES
-                        if (um.getAuthorizable(principalName) != null ) {
-                            throw new RepositoryException(
-                                "Collision in generated principal names, generated name " + principalName + " already exists");
-                        }
-                    }
+                    principalName = principalNameAllocator.allocate(um, principalName);
                 }
             }
         } else {
@@ -205,6 +261,49 @@ public abstract class AbstractAuthorizablePostServlet extends
         return principalName;
     }
 
+    /**
+     * Get or generate the names of a batch of principals being created. The
+     * generated names are made unique against the repository with set-based
+     * lookups and against each other in memory.
+     *
+     * @param jcrSession the session of the user creating the principals
+     * @param propertiesList the properties of each principal
+     * @param type the type of the principals
+     * @return the principal names in the order of the properties, null where none could be determined
+     * @throws RepositoryException if the names could not be made unique
+     */
+    protected List<String> getOrGeneratePrincipalNames(Session jcrSession, List<Map<String, ?>> propertiesList,
+            AuthorizableType type) throws RepositoryException {
+        PrincipalNameGenerator defaultPrincipalNameGenerator = null;
+        PrincipalNameGenerator principalNameGenerator = null;
+        final PrincipalNameGenerator[] generators = cachedPrincipalNameGenerators;
+        if (generators.length > 0) {
+            defaultPrincipalNameGenerator = generators[0];
+            principalNameGenerator = generators[generators.length - 1];
+        }
+        if (principalNameGenerator == null) {
+            // fallback to the old behavior
+            List<String> names = new ArrayList<>(propertiesList.size());
+            for (Map<String, ?> properties : propertiesList) {
+                names.add(getOrGeneratePrincipalName(jcrSession, properties, type));
+            }
+            return names;
+        }
+        List<NameInfo> nameInfos = new ArrayList<>(principalNameGenerator.getPrincipalNames(propertiesList, type,
+                principalNameFilter, defaultPrincipalNameGenerator));
+        if (defaultPrincipalNameGenerator != null) {
+            for (int i = 0; i < nameInfos.size(); i++) {
+                if (nameInfos.get(i) == null) {
+                    // fallback to the default impl
+                    nameInfos.set(i, defaultPrincipalNameGenerator.getPrincipalName(propertiesList.get(i), type,
+                            principalNameFilter, defaultPrincipalNameGenerator));
+                }
+            }
+        }
+        UserManager um = AccessControlUtil.getUserManager(jcrSession);
+        return principalNameAllocator.allocateAll(um, nameInfos);
+    }
+
     // ---------- SCR Integration ----------------------------------------------
 
     protected void activate(Map<String, Object> props) {
@@ -213,6 +312,50 @@ public abstract class AbstractAuthorizablePostServlet extends
         for (String dateFormat : dateFormats) {
             dateParser.register(dateFormat);
         }
+        skipUnchangedValues = OsgiUtil.toBoolean(props.get(PROP_SKIP_UNCHANGED), false);
+    }
+
+    /**
+     * Rejects the request if it carries an If-Match header that does not
+     * match the current ETag of the target authorizable, so concurrent
+     * edits are not silently overwritten.
+     *
+     * @param request the request to check
+     * @throws RequestRejectedException with status 412 (Precondition Failed) if the ETag does not match
+     */
+    protected void checkIfMatch(SlingHttpServletRequest request) {
+        String ifMatch = request.getHeader(AuthorizableETagFilter.HEADER_IF_MATCH);
+        if (ifMatch == null) {
+            return;
+        }
+        String etag = null;
+        Resource resource = request.getResource();
+        if (resource instanceof AuthorizableResource) {
+            etag = AuthorizableETagFilter.toETag(((AuthorizableResource)resource).getVersionToken());
+        }
+        if (etag == null || !AuthorizableETagFilter.matches(ifMatch, etag, false)) {
+            throw new RequestRejectedException(HttpServletResponse.SC_PRECONDITION_FAILED,
+                    "The authorizable was modified concurrently");
+        }
+    }
+
+    /**
+     * Report the properties that were not written since they already held
+     * the submitted values
+     *
+     * @param response the response to report to
+     * @param unchanged the paths of the skipped properties
+     */
+    protected void reportUnchanged(PostResponse response, List<String> unchanged) {
+        if (!skipUnchangedValues) {
+            return;
+        }
+        for (String path : unchanged) {
+            response.onChange("unchanged", path);
+        }
+        if (response instanceof JSONResponse) {
+            ((JSONResponse)response).setProperty(RP_UNCHANGED_COUNT, unchanged.size());
+        }
     }
 
     protected void deactivate() {
@@ -242,137 +385,96 @@ public abstract class AbstractAuthorizablePostServlet extends
      */
     protected Map<String, RequestProperty> collectContentMap(
             Map<String, ?> properties) {
+        return collectContentMap(getPropertyPlan(properties.keySet()), properties);
+    }
 
-        boolean requireItemPrefix = requireItemPathPrefix(properties);
-
-        // walk the request parameters and collect the properties (the key is the property path).
-        Map<String, RequestProperty> reqProperties = new HashMap<>();
-        for (Map.Entry<String, ?> e : properties.entrySet()) {
-            final String paramName = e.getKey();
-
-            // do not store parameters with names starting with sling:post
-            boolean skipParam = paramName.startsWith(SlingPostConstants.RP_PREFIX);
-            // SLING-298: skip form encoding parameter
-            if (paramName.equals("_charset_")) {
-                skipParam = true;
-            }
-            // skip parameters that do not start with the save prefix
-            if (requireItemPrefix && !hasItemPathPrefix(paramName)) {
-                skipParam = true;
-            }
-
-            // ensure the paramName is an absolute property path (i.e. starts with "/", where root refers to the authorizable's root, https://issues.apache.org/jira/browse/SLING-1577)
-            String propPath;
-            if (paramName.startsWith("./")) {
-                propPath = paramName.substring(1);
-            } else {
-                propPath = String.format("/%s", paramName);
+    /**
+     * Returns the plan for the parameter names, compiling it only the first
+     * time the same set of names is seen.
+     * @param names the names of the request parameters
+     * @return the plan for the names
+     */
+    protected PropertyPlan getPropertyPlan(Set<String> names) {
+        // the lookup works with any set implementation, so the names are only copied on a miss
+        PropertyPlan plan = propertyPlans.get(names);
+        if (plan == null) {
+            plan = PropertyPlan.compile(names);
+            if (propertyPlans.size() >= MAX_PROPERTY_PLANS) {
+                // too many different forms to be worth remembering, so start over
+                propertyPlans.clear();
             }
+            propertyPlans.put(Collections.unmodifiableSet(new HashSet<>(names)), plan);
+        }
+        return plan;
+    }
 
-            if (propPath.indexOf("..") != -1) {
-                // it is not supported to set properties potentially outside of the authorizable node
-                LOG.warn("Property path containing '..' is not supported, skipping parameter {}", paramName);
-                skipParam = true;
-            }
+    /**
+     * Collects the properties that form the content to be written back to the
+     * repository according to a plan compiled from the same parameter names.
+     * @param plan the plan compiled from the names of the <code>properties</code>
+     * @param properties the properties out of which to generate the {@link RequestProperty}s
+     * @return the list of {@link RequestProperty}s
+     */
+    protected Map<String, RequestProperty> collectContentMap(PropertyPlan plan,
+            Map<String, ?> properties) {
+        String[] propertyPaths = plan.getPropertyPaths();
+        RequestProperty[] props = new RequestProperty[propertyPaths.length];
+        for (int i = 0; i < props.length; i++) {
+            props[i] = new RequestProperty(propertyPaths[i]);
+        }
 
-            if (!skipParam) {
-                // @TypeHint example
-                // <input type="text" name="./age" />
-                // <input type="hidden" name="./age@TypeHint" value="long" />
-                // causes the setProperty using the 'long' property type
-                if (propPath.endsWith(SlingPostConstants.TYPE_HINT_SUFFIX)) {
-                    RequestProperty prop = getOrCreateRequestProperty(
-                        reqProperties, propPath,
-                        SlingPostConstants.TYPE_HINT_SUFFIX);
-
-                    String typeHintValue = convertToString(e.getValue());
+        for (int i = 0; i < plan.getParameterCount(); i++) {
+            RequestProperty prop = props[plan.getTarget(i)];
+            Object value = properties.get(plan.getParameterName(i));
+            switch (plan.getKind(i)) {
+                case TYPE_HINT:
+                    // @TypeHint example
+                    // <input type="text" name="./age" />
+                    // <input type="hidden" name="./age@TypeHint" value="long" />
+                    // causes the setProperty using the 'long' property type
+                    String typeHintValue = convertToString(value);
                     if (typeHintValue != null) {
                         prop.setTypeHintValue(typeHintValue);
                     }
-                } else if (propPath.endsWith(SlingPostConstants.DEFAULT_VALUE_SUFFIX)) {
+                    break;
+                case DEFAULT_VALUE:
                     // @DefaultValue
-                    RequestProperty prop = getOrCreateRequestProperty(
-                        reqProperties, propPath,
-                        SlingPostConstants.DEFAULT_VALUE_SUFFIX);
-
-                    prop.setDefaultValues(convertToRequestParameterArray(e.getValue()));
-                } else if (propPath.endsWith(SlingPostConstants.VALUE_FROM_SUFFIX)) {
+                    prop.setDefaultValues(convertToRequestParameterArray(value));
+                    break;
+                case VALUE_FROM:
                     // SLING-130: VALUE_FROM_SUFFIX means take the value of this
                     // property from a different field
                     // @ValueFrom example:
                     // <input name="./Text@ValueFrom" type="hidden" value="fulltext" />
                     // causes the JCR Text property to be set to the value of the
                     // fulltext form field.
-                    RequestProperty prop = getOrCreateRequestProperty(
-                        reqProperties, propPath,
-                        SlingPostConstants.VALUE_FROM_SUFFIX);
 
                     // @ValueFrom params must have exactly one value, else ignored
-                    String [] valueFrom = convertToStringArray(e.getValue());
+                    String [] valueFrom = convertToStringArray(value);
                     if (valueFrom.length == 1) {
                         String refName = valueFrom[0];
                         prop.setValues(convertToRequestParameterArray(refName));
                     }
-                } else if (propPath.endsWith(SlingPostConstants.SUFFIX_DELETE)) {
+                    break;
+                case DELETE:
                     // SLING-458: Allow Removal of properties prior to update
                     // @Delete example:
                     // <input name="./Text@Delete" type="hidden" />
                     // causes the JCR Text property to be deleted before update
-                    RequestProperty prop = getOrCreateRequestProperty(
-                        reqProperties, propPath, SlingPostConstants.SUFFIX_DELETE);
-
                     prop.setDelete(true);
-                } else if (propPath.endsWith(SlingPostConstants.SUFFIX_MOVE_FROM)) {
-                    // SLING-455: @MoveFrom means moving content to another location
-                    // @MoveFrom example:
-                    // <input name="./Text@MoveFrom" type="hidden" value="/tmp/path" />
-                    // causes the JCR Text property to be set by moving the /tmp/path
-                    // property to Text.
-
-                    // don't support @MoveFrom here
-                    LOG.warn("Suffix {} not supported, skipping parameter {}", SlingPostConstants.SUFFIX_MOVE_FROM, paramName);
-                } else if (propPath.endsWith(SlingPostConstants.SUFFIX_COPY_FROM)) {
-                    // SLING-455: @CopyFrom means moving content to another location
-                    // @CopyFrom example:
-                    // <input name="./Text@CopyFrom" type="hidden" value="/tmp/path" />
-                    // causes the JCR Text property to be set by copying the /tmp/path
-                    // property to Text.
-
-                    // don't support @CopyFrom here
-                    LOG.warn("Suffix {} not supported, skipping parameter {}", SlingPostConstants.SUFFIX_COPY_FROM, paramName);
-                } else {
+                    break;
+                default:
                     // plain property, create from values
-                    RequestProperty prop = getOrCreateRequestProperty(reqProperties,
-                        propPath, null);
-                    prop.setValues(convertToRequestParameterArray(e.getValue()));
-                }
+                    prop.setValues(convertToRequestParameterArray(value));
+                    break;
             }
         }
 
-        return reqProperties;
-    }
-
-    /**
-     * Returns the request property for the given property path. If such a
-     * request property does not exist yet it is created and stored in the
-     * <code>props</code>.
-     *
-     * @param props The map of already seen request properties 
-     *               (key is the property path).
-     * @param paramPath The absolute path of the property including the
-     *            <code>suffix</code> to be looked up.
-     * @param suffix The (optional) suffix to remove from the
-     *            <code>paramName</code> before looking it up.
-     * @return The {@link RequestProperty} for the <code>paramName</code>.
-     */
-    private RequestProperty getOrCreateRequestProperty(
-            Map<String, RequestProperty> props, String paramPath, String suffix) {
-        if (suffix != null && paramPath.endsWith(suffix)) {
-            paramPath = paramPath.substring(0, paramPath.length()
-                - suffix.length());
+        Map<String, RequestProperty> reqProperties = new HashMap<>(Math.max(16, (int)(props.length / 0.75f) + 1));
+        for (RequestProperty prop : props) {
+            reqProperties.put(prop.getPath(), prop);
         }
-
-        return props.computeIfAbsent(paramPath, RequestProperty::new);
+        return reqProperties;
     }
 
     /**
@@ -423,78 +525,156 @@ public abstract class AbstractAuthorizablePostServlet extends
     protected void processCreate(Session session, Authorizable authorizable,
             Map<String, RequestProperty> reqProperties,
             List<Modification> changes) throws RepositoryException {
+        processCreate(session, authorizable, reqProperties.values(), reqProperties, changes);
+    }
+
+    /**
+     * Create resource(s) according to current request, only looking at the
+     * structural properties the plan has found in the request
+     *
+     * @param session the sessioin to write the authorizable properties
+     * @param authorizable The
+     *            <code>org.apache.jackrabbit.api.security.user.Authorizable</code>
+     *            that should have properties deleted.
+     * @param plan the plan the <code>reqProperties</code> were collected with
+     * @param reqProperties The collection of request properties to check for
+     *            properties to be removed.
+     * @param changes The <code>List</code> to be updated with
+     *            information on deleted properties.
+     * @throws RepositoryException Is thrown if an error occurrs checking or
+     *             removing properties.
+     */
+    protected void processCreate(Session session, Authorizable authorizable,
+            PropertyPlan plan, Map<String, RequestProperty> reqProperties,
+            List<Modification> changes) throws RepositoryException {
+        String[] structuralPaths = plan.getStructuralPaths();
+        if (structuralPaths.length == 0) {
+            // nothing to create
+            return;
+        }
+        List<RequestProperty> structuralProperties = new ArrayList<>(structuralPaths.length);
+        for (String structuralPath : structuralPaths) {
+            structuralProperties.add(reqProperties.get(structuralPath));
+        }
+        processCreate(session, authorizable, structuralProperties, reqProperties, changes);
+    }
+
+    private void processCreate(Session session, Authorizable authorizable,
+            Collection<RequestProperty> candidates, Map<String, RequestProperty> reqProperties,
+            List<Modification> changes) throws RepositoryException {
+
+        // visit the nodes top down, and the primary type of a node before its mixins
+        List<RequestProperty> structuralProperties = new ArrayList<>();
+        for (RequestProperty prop : candidates) {
+            if (UpdatePlan.isStructural(prop)) {
+                structuralProperties.add(prop);
+            }
+        }
+        if (structuralProperties.isEmpty()) {
+            return;
+        }
+        structuralProperties.sort(STRUCTURAL_ORDER);
 
         @NotNull
         String path = authorizable.getPath();
-        for (RequestProperty prop : reqProperties.values()) {
-            String propName = prop.getName();
-            if (JcrConstants.JCR_PRIMARYTYPE.equals(propName) || JcrConstants.JCR_MIXINTYPES.equals(propName)) {
-                String parentPath = prop.getParentPath();
-                if (parentPath == null && JcrConstants.JCR_PRIMARYTYPE.equals(propName)) {
-                    // don't allow changing the primaryType of the user/group root node
-                    continue;
-                }
+        // the nodes visited so far by their path relative to the authorizable node
+        Map<String, Node> nodes = new HashMap<>();
+        nodes.put("", session.getNode(path));
+        for (RequestProperty prop : structuralProperties) {
+            String parentPath = prop.getParentPath();
+            String relativePath = parentPath == null ? "" : UpdatePlan.trimSlashes(parentPath);
+            Node node = getOrCreateNode(nodes, relativePath, reqProperties, changes);
+            applyNodeType(node, relativePath, prop, changes);
+        }
+    }
 
-                String tp = null;
-                if (parentPath == null || "/".equals(parentPath)) {
-                    tp = path;
-                } else if (parentPath.startsWith("/")){
-                    tp = Paths.get(path, parentPath.substring(1)).toString();
+    /**
+     * Sets the primary type or adds the mixins of the request property to the node
+     *
+     * @param node the node the property belongs to
+     * @param relativePath the path of the node relative to the authorizable node
+     * @param prop the jcr:primaryType or jcr:mixinTypes request property
+     * @param changes the list of changes to add the modified node types to
+     */
+    private void applyNodeType(Node node, String relativePath, RequestProperty prop,
+            List<Modification> changes) throws RepositoryException {
+        String propName = prop.getName();
+        // only allow changing the primaryType of the ancestors, not the root
+        if (JcrConstants.JCR_PRIMARYTYPE.equals(propName)) {
+            if (relativePath.isEmpty()) {
+                // don't allow changing the primaryType of the user home root
+                throw new AccessDeniedException("Access denied.");
+            } else {
+                final String nodeType = prop.getStringValues()[0];
+                if (nodeType != null && !node.isNodeType(nodeType)) {
+                    node.setPrimaryType(nodeType);
+                    changes.add(Modification.onModified(node.getPath() + "/" + propName));
                 }
-                if (tp != null && (tp.equals(path) || Paths.get(tp).startsWith(path))) {
-                    Node node = null;
-                    if (session.nodeExists(tp)) {
-                        node = session.getNode(tp);
-                    } else {
-                        Node tempNode = session.getNode(path);
-                        // create any missing intermediate nodes
-                        Iterator<Path> elements = Paths.get(parentPath).iterator();
-                        while (elements.hasNext()) {
-                            String segment = elements.next().toString();
-                            String tempPath = Paths.get(tempNode.getPath(), segment).toString();
-                            if (session.nodeExists(tempPath)) {
-                                tempNode = session.getNode(tempPath);
-                            } else {
-                                String primaryType = getPrimaryType(reqProperties, tempPath);
-                                if (primaryType != null) {
-                                    tempNode = tempNode.addNode(segment, primaryType);
-                                } else {
-                                    tempNode = tempNode.addNode(segment);
-                                }
-                                changes.add(Modification.onCreated(tempNode.getPath()));
-                            }
-                        }
-                        node = tempNode;
+            }
+        } else {
+            String[] mixins = !prop.hasValues() ? null : prop.getStringValues();
+            if (mixins != null) {
+                for (final String mixin : mixins) {
+                    if (!node.isNodeType(mixin)) {
+                        node.addMixin(mixin);
+                        changes.add(Modification.onModified(node.getPath() + "/" + propName));
                     }
+                }
+            }
+        }
+    }
 
-                    if (node != null) {
-                        // only allow changing the primaryType of the ancestors, not the root
-                        if (JcrConstants.JCR_PRIMARYTYPE.equals(propName)) {
-                            if (tp.equals(path)) {
-                                // don't allow changing the primaryType of the user home root
-                                throw new AccessDeniedException("Access denied.");
-                            } else {
-                                final String nodeType = prop == null ? null : prop.getStringValues()[0];
-                                if (nodeType != null && !node.isNodeType(nodeType)) {
-                                    node.setPrimaryType(nodeType);
-                                    changes.add(Modification.onModified(Paths.get(node.getPath(), propName).toString()));
-                                }
-                            }
-                        } else if (JcrConstants.JCR_MIXINTYPES.equals(propName)) {
-                            String[] mixins = (prop == null) || !prop.hasValues() ? null : prop.getStringValues();
-                            if (mixins != null) {
-                                for (final String mixin : mixins) {
-                                    if (!node.isNodeType(mixin)) {
-                                        node.addMixin(mixin);
-                                        changes.add(Modification.onModified(Paths.get(node.getPath(), propName).toString()));
-                                    }
-                                }
-                            }
-                        }
-                    }
+    /**
+     * Sorts the structural properties by the path of their node, and puts the
+     * primary type of a node before its mixins
+     */
+    private static final Comparator<RequestProperty> STRUCTURAL_ORDER = (p1, p2) -> {
+        String parent1 = p1.getParentPath() == null ? "" : p1.getParentPath();
+        String parent2 = p2.getParentPath() == null ? "" : p2.getParentPath();
+        int result = parent1.compareTo(parent2);
+        if (result == 0) {
+            result = Boolean.compare(!JcrConstants.JCR_PRIMARYTYPE.equals(p1.getName()),
+                    !JcrConstants.JCR_PRIMARYTYPE.equals(p2.getName()));
+        }
+        return result;
+    };
+
+    /**
+     * Returns the node at the relative path, creating the missing nodes on the
+     * way. Every node is looked up only once since the visited nodes are
+     * remembered.
+     *
+     * @param nodes the visited nodes by their relative path, the authorizable node has the empty path
+     * @param relativePath the path relative to the authorizable node without leading or trailing slashes
+     * @param reqProperties the request properties to find the primary type of new nodes
+     * @param changes the list of changes to add the created nodes to
+     * @return the node
+     */
+    private Node getOrCreateNode(Map<String, Node> nodes, String relativePath,
+            Map<String, RequestProperty> reqProperties, List<Modification> changes) throws RepositoryException {
+        Node node = nodes.get(relativePath);
+        if (node == null) {
+            // start from the closest visited ancestor
+            int slash = relativePath.lastIndexOf('/');
+            String parentPath = slash == -1 ? "" : relativePath.substring(0, slash);
+            String segment = relativePath.substring(slash + 1);
+            Node parent = getOrCreateNode(nodes, parentPath, reqProperties, changes);
+            if (segment.isEmpty() || ".".equals(segment)) {
+                node = parent;
+            } else if (parent.hasNode(segment)) {
+                node = parent.getNode(segment);
+            } else {
+                String primaryType = getPrimaryType(reqProperties, "/" + relativePath);
+                if (primaryType != null) {
+                    node = parent.addNode(segment, primaryType);
+                } else {
+                    node = parent.addNode(segment);
                 }
+                changes.add(Modification.onCreated(node.getPath()));
             }
+            nodes.put(relativePath, node);
         }
+        return node;
     }
 
     /**
@@ -506,7 +686,7 @@ public abstract class AbstractAuthorizablePostServlet extends
      */
     private String getPrimaryType(Map<String, RequestProperty> reqProperties,
             String path) {
-        RequestProperty prop = reqProperties.get(String.format("%s/%s", path, JcrConstants.JCR_PRIMARYTYPE));
+        RequestProperty prop = reqProperties.get(path + "/" + JcrConstants.JCR_PRIMARYTYPE);
         return prop == null ? null : prop.getStringValues()[0];
     }
 
@@ -522,33 +702,93 @@ public abstract class AbstractAuthorizablePostServlet extends
     protected void writeContent(Session session, Authorizable authorizable,
             Collection<RequestProperty> reqProperties,
             List<Modification> changes) throws RepositoryException {
+        writeContent(session, authorizable, reqProperties, changes, null);
+    }
 
+    /**
+     * Writes back the content, skipping the properties that already hold the
+     * submitted values when {@link #PROP_SKIP_UNCHANGED} is enabled
+     * @param session the sessioin to write the authorizable properties
+     * @param authorizable the authorizable to modify
+     * @param reqProperties the properties to write
+     * @param changes the list of changes which is supposed to be extended
+     * @param unchanged the list of skipped property paths which is supposed to be extended, may be null
+     *
+     * @throws RepositoryException if a repository error occurs
+     */
+    protected void writeContent(Session session, Authorizable authorizable,
+            Collection<RequestProperty> reqProperties,
+            List<Modification> changes, @Nullable List<String> unchanged) throws RepositoryException {
+        // compare before writing only when enabled
+        List<String> skipped = null;
+        if (skipUnchangedValues) {
+            skipped = unchanged == null ? new ArrayList<>() : unchanged;
+        }
+
+        // the nodes holding the untyped properties, looked up once per parent path
+        Map<String, Node> propParentNodes = new HashMap<>();
+        boolean group = authorizable.isGroup();
         for (RequestProperty prop : reqProperties) {
-            if (prop.hasValues()) {
-                // remove artificial "/" prepended to the prop path
-                String relativePath = prop.getPath().substring(1);
-                
-                // skip jcr special properties
-                String name = prop.getName();
-                boolean isSpecialProp = name.equals(JcrConstants.JCR_PRIMARYTYPE)
-                    || name.equals(JcrConstants.JCR_MIXINTYPES);
-                if (authorizable.isGroup()) {
-                    if (relativePath.equals("groupId")) {
-                        // skip these
-                        isSpecialProp = true;
+            if (UpdatePlan.isWritable(prop, group)) {
+                setPropertyAsIs(session, authorizable, prop, false, propParentNodes, changes, skipped);
+            }
+        }
+    }
+
+    /**
+     * Applies the deletes, the node type changes and the writes of an update
+     * in a single pass over the planned steps, so each node is looked up once
+     * and properties removed by an earlier step are not looked up again. This
+     * replaces calling {@link #processDeletes(Authorizable, Collection, List)},
+     * {@link #processCreate(Session, Authorizable, PropertyPlan, Map, List)} and
+     * {@link #writeContent(Session, Authorizable, Collection, List, List)} in turn.
+     *
+     * @param session the session to write the authorizable properties
+     * @param authorizable the authorizable to modify
+     * @param plan the plan made from the <code>reqProperties</code>
+     * @param reqProperties the request properties to find the primary type of new nodes
+     * @param changes the list of changes which is supposed to be extended
+     * @param unchanged the list of skipped property paths which is supposed to be extended, may be null
+     * @throws RepositoryException if a repository error occurs
+     */
+    protected void processUpdate(Session session, Authorizable authorizable,
+            UpdatePlan plan, Map<String, RequestProperty> reqProperties,
+            List<Modification> changes, @Nullable List<String> unchanged) throws RepositoryException {
+        // compare before writing only when enabled
+        List<String> skipped = null;
+        if (skipUnchangedValues) {
+            skipped = unchanged == null ? new ArrayList<>() : unchanged;
+        }
+
+        String authorizablePath = authorizable.getPath();
+        // the nodes with node type changes by their path relative to the authorizable node
+        Map<String, Node> nodes = new HashMap<>();
+        // the nodes holding the untyped properties, looked up once per parent path
+        Map<String, Node> propParentNodes = new HashMap<>();
+        for (UpdatePlan.Step step : plan.getSteps()) {
+            RequestProperty prop = step.getProperty();
+            switch (step.getAction()) {
+                case DELETE:
+                    // SLING-7901 - remove artificial "/" prepended to the prop path
+                    String relativePath = prop.getPath().substring(1);
+                    if (authorizable.hasProperty(relativePath)) {
+                        authorizable.removeProperty(relativePath);
+                        changes.add(Modification.onDeleted(relativePath));
                     }
-                } else {
-                    if (relativePath.equals("userId")
-                        || relativePath.equals("pwd")
-                        || relativePath.equals("pwdConfirm")) {
-                        // skip these
-                        isSpecialProp = true;
+                    break;
+                case PRIMARY_TYPE:
+                case MIXINS:
+                    if (nodes.isEmpty()) {
+                        nodes.put("", session.getNode(authorizablePath));
                     }
-                }
-                if (!isSpecialProp &&  // skip these
-                        !prop.isFileUpload()) { // don't handle files for user properties for now.
-                    setPropertyAsIs(session, authorizable, prop, changes);
-                }
+                    Node node = getOrCreateNode(nodes, step.getNodePath(), reqProperties, changes);
+                    applyNodeType(node, step.getNodePath(), prop, changes);
+                    // the properties of the node do not have to look it up again
+                    propParentNodes.put(authorizablePath.concat(prop.getParentPath()), node);
+                    break;
+                default:
+                    setPropertyAsIs(session, authorizable, prop, step.isAbsent(), propParentNodes, changes, skipped);
+                    break;
             }
         }
     }
@@ -597,10 +837,15 @@ public abstract class AbstractAuthorizablePostServlet extends
      *
      * @param parent the parent node
      * @param prop the request property
+     * @param absent true if the property is known to not exist
+     * @param propParentNodes the already resolved nodes holding the properties
+     * @param unchanged collects the paths of the properties that were not written
+     *          since they already had the submitted value, or null to write unconditionally
      * @throws RepositoryException if a repository error occurs.
      */
     private void setPropertyAsIs(Session session, Authorizable parent,
-            RequestProperty prop, List<Modification> changes)
+            RequestProperty prop, boolean absent, Map<String, Node> propParentNodes,
+            List<Modification> changes, @Nullable List<String> unchanged)
             throws RepositoryException {
 
         String parentPath;
@@ -625,42 +870,58 @@ public abstract class AbstractAuthorizablePostServlet extends
         } else {
             // inspect the node type definitions to see if there is a known PropertyDefintion
             //  for the target property that we can get the required type from
-            String propParentPath = String.format("%s%s", parent.getPath(), prop.getParentPath());
-            if (session.nodeExists(propParentPath)) {
+            Node parentNode = resolvePropParentNode(session, parent, prop, propParentNodes);
+            if (parentNode != null) {
                 // try to determine required property type from the NodeType definition
-                Node parentNode = session.getNode(propParentPath);
-                @Nullable
-                PropertyDefinition propDef = resolvePropertyDefinition(prop.getName(), parentNode);
-                if (propDef != null) {
-                    type = propDef.getRequiredType();
-                    multiValue = propDef.isMultiple();
+                PropertyDefinitionCache cache = propertyDefinitionCache;
+                if (cache != null) {
+                    @Nullable
+                    Definition definition = cache.getDefinition(prop.getName(), parentNode);
+                    if (definition != null) {
+                        type = definition.getRequiredType();
+                        multiValue = definition.isMultiple();
+                    }
+                } else {
+                    @Nullable
+                    PropertyDefinition propDef = resolvePropertyDefinition(prop.getName(), parentNode);
+                    if (propDef != null) {
+                        type = propDef.getRequiredType();
+                        multiValue = propDef.isMultiple();
+                    }
                 }
             }
         }
         // remove artificial "/" prepended to the prop path
         String relativePath = prop.getPath().substring(1);
+        // the existing property to compare with before writing
+        Property current = null;
+        if (unchanged != null && !absent) {
+            Node parentNode = resolvePropParentNode(session, parent, prop, propParentNodes);
+            if (parentNode != null && parentNode.hasProperty(prop.getName())) {
+                current = parentNode.getProperty(prop.getName());
+            }
+        }
 
         String[] values = prop.getStringValues();
         if (values == null) {
             // remove property
-            boolean removedProp = removePropertyIfExists(parent, relativePath);
+            boolean removedProp = !absent && removePropertyIfExists(parent, relativePath);
             if (removedProp) {
                 changes.add(Modification.onDeleted(parentPath + "/"
                     + relativePath));
             }
         } else if (values.length == 0) {
             // do not create new prop here, but clear existing
-            if (parent.hasProperty(relativePath)) {
+            if (!absent && parent.hasProperty(relativePath)) {
                 Value val = session.getValueFactory().createValue("");
-                parent.setProperty(relativePath, val);
-                changes.add(Modification.onModified(parentPath + "/"
-                    + relativePath));
+                setPropertyIfChanged(parent, relativePath, current, new Value[] {val}, false,
+                        parentPath, changes, unchanged);
             }
         } else if (values.length == 1) {
             // if the provided value is the empty string, we don't have to do
             // anything.
             if (values[0].length() == 0) {
-                boolean removedProp = removePropertyIfExists(parent, relativePath);
+                boolean removedProp = !absent && removePropertyIfExists(parent, relativePath);
                 if (removedProp) {
                     changes.add(Modification.onDeleted(parentPath + "/"
                         + relativePath));
@@ -671,41 +932,24 @@ public abstract class AbstractAuthorizablePostServlet extends
                     // try conversion
                     Calendar c = dateParser.parse(values[0]);
                     if (c != null) {
-                        if (multiValue) {
-                            final Value[] array = new Value[1];
-                            array[0] = session.getValueFactory().createValue(c);
-                            parent.setProperty(relativePath, array);
-                            changes.add(Modification.onModified(parentPath
-                                + "/" + relativePath));
-                        } else {
-                            Value cVal = session.getValueFactory().createValue(
-                                c);
-                            parent.setProperty(relativePath, cVal);
-                            changes.add(Modification.onModified(parentPath
-                                + "/" + relativePath));
-                        }
+                        Value cVal = session.getValueFactory().createValue(c);
+                        setPropertyIfChanged(parent, relativePath, current, new Value[] {cVal}, multiValue,
+                                parentPath, changes, unchanged);
                         return;
                     }
                     // fall back to default behaviour
                 }
+                Value val;
                 if (type == PropertyType.UNDEFINED) {
-                    Value val = session.getValueFactory().createValue(
+                    val = session.getValueFactory().createValue(
                         values[0], PropertyType.STRING);
-                    parent.setProperty(relativePath, val);
+                    multiValue = false;
                 } else {
-                    if (multiValue) {
-                        final Value[] array = new Value[1];
-                        array[0] = session.getValueFactory().createValue(
-                            values[0], type);
-                        parent.setProperty(relativePath, array);
-                    } else {
-                        Value val = session.getValueFactory().createValue(
-                            values[0], type);
-                        parent.setProperty(relativePath, val);
-                    }
+                    val = session.getValueFactory().createValue(
+                        values[0], type);
                 }
-                changes.add(Modification.onModified(parentPath + "/"
-                    + relativePath));
+                setPropertyIfChanged(parent, relativePath, current, new Value[] {val}, multiValue,
+                        parentPath, changes, unchanged);
             }
         } else {
             if (type == PropertyType.DATE) {
@@ -713,9 +957,8 @@ public abstract class AbstractAuthorizablePostServlet extends
                 ValueFactory valFac = session.getValueFactory();
                 Value[] c = dateParser.parse(values, valFac);
                 if (c != null) {
-                    parent.setProperty(relativePath, c);
-                    changes.add(Modification.onModified(parentPath + "/"
-                        + relativePath));
+                    setPropertyIfChanged(parent, relativePath, current, c, true,
+                            parentPath, changes, unchanged);
                     return;
                 }
                 // fall back to default behaviour
@@ -732,11 +975,71 @@ public abstract class AbstractAuthorizablePostServlet extends
                         type);
                 }
             }
-            parent.setProperty(relativePath, vals);
-            changes.add(Modification.onModified(parentPath + "/"
-                + relativePath));
+            setPropertyIfChanged(parent, relativePath, current, vals, true,
+                    parentPath, changes, unchanged);
+        }
+
+    }
+
+    /**
+     * Find the node that holds the property, remembering the outcome for
+     * the other properties of the same request
+     */
+    private @Nullable Node resolvePropParentNode(Session session, Authorizable parent,
+            RequestProperty prop, Map<String, Node> propParentNodes) throws RepositoryException {
+        String propParentPath = parent.getPath().concat(prop.getParentPath());
+        Node parentNode;
+        if (propParentNodes.containsKey(propParentPath)) {
+            parentNode = propParentNodes.get(propParentPath);
+        } else {
+            parentNode = session.nodeExists(propParentPath) ? session.getNode(propParentPath) : null;
+            propParentNodes.put(propParentPath, parentNode);
+        }
+        return parentNode;
+    }
+
+    /**
+     * Sets the property unless the current property already holds the
+     * same values.
+     */
+    private void setPropertyIfChanged(Authorizable parent, String relativePath,
+            @Nullable Property current, Value[] values, boolean multiValue,
+            String parentPath, List<Modification> changes, @Nullable List<String> unchanged)
+            throws RepositoryException {
+        String propPath = parentPath + "/" + relativePath;
+        if (unchanged != null && current != null && hasValues(current, values, multiValue)) {
+            unchanged.add(propPath);
+            return;
         }
+        if (multiValue) {
+            parent.setProperty(relativePath, values);
+        } else {
+            parent.setProperty(relativePath, values[0]);
+        }
+        changes.add(Modification.onModified(propPath));
+    }
 
+    /**
+     * Checks if the property already holds exactly the supplied values
+     */
+    private static boolean hasValues(Property current, Value[] values, boolean multiValue) throws RepositoryException {
+        if (current.isMultiple() != multiValue) {
+            return false;
+        }
+        Value[] currentValues = multiValue ? current.getValues() : new Value[] {current.getValue()};
+        if (currentValues.length != values.length) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            Value currentValue = currentValues[i];
+            Value value = values[i];
+            if (currentValue.getType() != value.getType()
+                    || value.getType() == PropertyType.BINARY // not worth streaming to compare
+                    || !currentValue.getString().equals(value.getString())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
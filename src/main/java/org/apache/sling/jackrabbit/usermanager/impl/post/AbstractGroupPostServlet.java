@@ -24,7 +24,6 @@ import javax.jcr.Session;
 
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
-import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
@@ -54,21 +53,41 @@ public abstract class AbstractGroupPostServlet extends
                                         Authorizable authorizable, 
                                         List<Modification> changes)
             throws RepositoryException {
+        ResourceResolver resolver = baseResource.getResourceResolver();
+        Session session = resolver.adaptTo(Session.class);
+        try (MemberResolver members = new MemberResolver(session,
+                AccessControlUtil.getUserManager(session), resolver, null, baseResource.getPath())) {
+            updateGroupMembership(members, properties, authorizable, changes);
+        }
+    }
+
+    /**
+     * Update the group membership based on the ":member" request parameters,
+     * resolving the values through the supplied {@link MemberResolver}.
+     *
+     * @param members resolves the member values
+     * @param properties the request parameters
+     * @param authorizable the group to update
+     * @param changes the changes which are done by this operation (list is extended)
+     * @throws RepositoryException when updating the membership failed
+     */
+    void updateGroupMembership(MemberResolver members,
+                                        Map<String, ?> properties,
+                                        Authorizable authorizable,
+                                        List<Modification> changes)
+            throws RepositoryException {
         if (authorizable.isGroup()) {
             Group group = ((Group) authorizable);
             String groupPath = systemUserManagerPaths.getGroupPrefix()
                 + group.getID();
 
-            ResourceResolver resolver = baseResource.getResourceResolver();
             boolean changed = false;
-            
-            UserManager userManager = AccessControlUtil.getUserManager(resolver.adaptTo(Session.class));
 
             // first remove any members posted as ":member@Delete"
             String[] membersToDelete = convertToStringArray(properties.get(SlingPostConstants.RP_PREFIX
                 + "member" + SlingPostConstants.SUFFIX_DELETE));
             for (String member : membersToDelete) {
-                Authorizable memberAuthorizable = getAuthorizable(baseResource, member,userManager,resolver);
+                Authorizable memberAuthorizable = members.resolve(member);
                 if (memberAuthorizable != null) {
                     group.removeMember(memberAuthorizable);
                     changed = true;
@@ -79,7 +98,7 @@ public abstract class AbstractGroupPostServlet extends
             String[] membersToAdd = convertToStringArray(properties.get(SlingPostConstants.RP_PREFIX
                 + "member"));
             for (String member : membersToAdd) {
-                Authorizable memberAuthorizable = getAuthorizable(baseResource, member,userManager,resolver);
+                Authorizable memberAuthorizable = members.resolve(member);
                 if (memberAuthorizable != null) {
                     group.addMember(memberAuthorizable);
                     changed = true;
@@ -94,30 +113,4 @@ public abstract class AbstractGroupPostServlet extends
         }
     }
 
-    /**
-     * Gets the member, assuming its a principal name, failing that it assumes it a path to the resource.
-     * @param member the token pointing to the member, either a name or a uri
-     * @param userManager the user manager for this request.
-     * @param resolver the resource resolver for this request.
-     * @return the authorizable, or null if no authorizable was found.
-     */
-    private Authorizable getAuthorizable(Resource baseResource, 
-                                    String member, 
-                                    UserManager userManager,
-                                    ResourceResolver resolver) {
-        Authorizable memberAuthorizable = null;
-        try {
-            memberAuthorizable = userManager.getAuthorizable(member);
-        } catch (RepositoryException e) {
-            // if we can't find the members then it may be resolvable as a resource.
-        }
-        if ( memberAuthorizable == null ) {
-            Resource res = resolver.getResource(baseResource, member);
-            if (res != null) {
-                memberAuthorizable = res.adaptTo(Authorizable.class);
-            }
-        }
-        return memberAuthorizable;
-    }
-
 }
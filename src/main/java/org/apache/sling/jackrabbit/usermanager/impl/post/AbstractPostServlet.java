@@ -138,6 +138,8 @@ public abstract class AbstractPostServlet extends
         } catch (ResourceNotFoundException rnfe) {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND,
                 rnfe.getMessage());
+        } catch (RequestRejectedException rre) {
+            response.setStatus(rre.getStatus(), rre.getMessage());
         } catch (Exception throwable) {
             if (log.isDebugEnabled()) {
                 log.debug(String.format("Exception while handling POST %s with %s",
@@ -24,9 +24,9 @@ import javax.jcr.Session;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
 import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
 
 import org.apache.jackrabbit.api.security.user.Authorizable;
-import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
@@ -35,6 +35,8 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.jackrabbit.usermanager.ChangeUserPassword;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache.Capabilities;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.api.SlingRepository;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
@@ -42,12 +44,14 @@ import org.apache.sling.serviceusermapping.ServiceUserMapped;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.PostResponseCreator;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
@@ -157,6 +161,29 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
     @Reference
     private transient ServiceUserMapped serviceUserMapped;
 
+    /**
+     * The optional executor limiting the number of concurrent password changes
+     * submitted through this servlet
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private transient volatile PasswordHashingExecutor passwordHashingExecutor;
+
+    /**
+     * The capabilities of the session users, shared with the other servlets
+     */
+    @Reference
+    private transient EffectiveCapabilityCache capabilityCache;
+
+    /**
+     * The optional pool of the service sessions used for self password changes
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private transient volatile ServiceSessionPool serviceSessionPool;
+
     /**
      * Activates this component.
      *
@@ -224,12 +251,18 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
 
         Resource resource = request.getResource();
         Session session = request.getResourceResolver().adaptTo(Session.class);
-        changePassword(session,
-                resource.getName(),
-                request.getParameter("oldPwd"),
-                request.getParameter("newPwd"),
-                request.getParameter("newPwdConfirm"),
-                changes);
+        String name = resource.getName();
+        String oldPassword = request.getParameter("oldPwd");
+        String newPassword = request.getParameter("newPwd");
+        String newPasswordConfirm = request.getParameter("newPwdConfirm");
+
+        // deriving the password hash is expensive, so limit the number of concurrent changes
+        PasswordHashingExecutor executor = this.passwordHashingExecutor;
+        if (executor == null) {
+            changePassword(request, session, name, oldPassword, newPassword, newPasswordConfirm, changes);
+        } else {
+            executor.execute(() -> changePassword(request, session, name, oldPassword, newPassword, newPasswordConfirm, changes));
+        }
     }
 
     /* (non-Javadoc)
@@ -242,6 +275,21 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
                                 String newPasswordConfirm,
                                 List<Modification> changes)
                 throws RepositoryException {
+        return changePassword(null, jcrSession, name, oldPassword, newPassword, newPasswordConfirm, changes);
+    }
+
+    /**
+     * Changes the password of the user, remembering the capabilities of the
+     * session user in the request, if any.
+     */
+    private User changePassword(@Nullable ServletRequest request,
+                                Session jcrSession,
+                                String name,
+                                String oldPassword,
+                                String newPassword,
+                                String newPasswordConfirm,
+                                List<Modification> changes)
+                throws RepositoryException {
 
         if ("anonymous".equals(name)) {
             throw new RepositoryException(
@@ -265,21 +313,10 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
         // check that the submitted parameter values have valid values.
         if (oldPassword == null || oldPassword.length() == 0) {
             try {
-                UserManager um = AccessControlUtil.getUserManager(jcrSession);
-                User currentUser = (User) um.getAuthorizable(jcrSession.getUserID());
-                administrator = currentUser.isAdmin();
-
-                if (!administrator) {
-                    //check if the user is a member of the 'User administrator' group
-                    Authorizable userAdmin = um.getAuthorizable(this.userAdminGroupName);
-                    if (userAdmin instanceof Group) {
-                        boolean isMember = ((Group)userAdmin).isMember(currentUser);
-                        if (isMember) {
-                            administrator = true;
-                        }
-                    }
-
-                }
+                Capabilities capabilities = capabilityCache.get(request, jcrSession);
+                //check if the user is the admin or a member of the 'User administrator' group
+                administrator = capabilities.isAdmin()
+                        || capabilities.isMemberOf(this.userAdminGroupName);
             } catch ( Exception ex ) {
                 log.warn("Failed to determine if the user is an admin, assuming not. Cause: {}", ex.getMessage());
                 administrator = false;
@@ -296,13 +333,27 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
                 "New Password does not match the confirmation password");
         }
 
+        changePassword(jcrSession, name, user, oldPassword, newPassword);
+
+        final String passwordPath = systemUserManagerPaths.getUserPrefix() + user.getID() + "/rep:password";
+
+        changes.add(Modification.onModified(passwordPath));
+
+        return user;
+    }
+
+    /**
+     * Changes the password, verifying the old password if it was supplied
+     */
+    private void changePassword(Session jcrSession, String name, User user,
+            String oldPassword, String newPassword) throws RepositoryException {
         if (oldPassword != null && oldPassword.length() > 0) {
             // verify old password
             if (alwaysAllowSelfChangePassword && jcrSession.getUserID().equals(name)) {
                 // first check if the current user has enough permissions to do this without
                 //   the aid of a service session
                 AccessControlManager acm = jcrSession.getAccessControlManager();
-                boolean hasRights = acm.hasPrivileges(authorizable.getPath(), new Privilege[] {
+                boolean hasRights = acm.hasPrivileges(user.getPath(), new Privilege[] {
                                         acm.privilegeFromName(PrivilegeConstants.REP_USER_MANAGEMENT)
                                 });
 
@@ -312,9 +363,10 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
                 } else {
                     // the current user doesn't have enough permissions, so we'll need do
                     //   do the work on their behalf as a service user
+                    ServiceSessionPool pool = this.serviceSessionPool;
                     Session svcSession = null;
                     try {
-                        svcSession = repository.loginService(null, null);
+                        svcSession = pool != null ? pool.borrow() : repository.loginService(null, null);
                         UserManager um = AccessControlUtil.getUserManager(svcSession);
                         User user2 = (User) um.getAuthorizable(name);
                         user2.changePassword(newPassword, oldPassword);
@@ -322,7 +374,9 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
                             svcSession.save();
                         }
                     } finally {
-                        if (svcSession != null) {
+                        if (pool != null) {
+                            pool.release(svcSession);
+                        } else if (svcSession != null) {
                             svcSession.logout();
                         }
                     }
@@ -333,11 +387,5 @@ public class ChangeUserPasswordServlet extends AbstractAuthorizablePostServlet i
         } else {
             user.changePassword(newPassword);
         }
-
-        final String passwordPath = systemUserManagerPaths.getUserPrefix() + user.getID() + "/rep:password";
-
-        changes.add(Modification.onModified(passwordPath));
-
-        return user;
     }
 }
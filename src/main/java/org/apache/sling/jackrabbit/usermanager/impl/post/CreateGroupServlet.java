@@ -17,7 +17,6 @@
 package org.apache.sling.jackrabbit.usermanager.impl.post;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -30,13 +29,13 @@ import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.oak.spi.security.user.AuthorizableType;
 import org.apache.sling.api.SlingHttpServletRequest;
-import org.apache.sling.api.resource.LoginException;
-import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.jackrabbit.usermanager.CreateGroup;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameFilter;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.PropertyDefinitionCache;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.UnknownAuthorizableCache;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.servlets.post.Modification;
@@ -44,6 +43,7 @@ import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.PostResponseCreator;
 import org.apache.sling.servlets.post.SlingPostConstants;
 import org.apache.sling.servlets.post.impl.helper.RequestProperty;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
@@ -117,7 +117,15 @@ public class CreateGroupServlet extends AbstractGroupPostServlet implements Crea
 
     @Reference
     private transient ResourceResolverFactory resourceResolverFactory;
-    
+
+    /**
+     * Optional cache of the principal ids that recently did not resolve
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private transient volatile UnknownAuthorizableCache unknownAuthorizableCache;
+
     @Override
     @Activate
     protected void activate(final Map<String, Object> props) {
@@ -155,6 +163,19 @@ public class CreateGroupServlet extends AbstractGroupPostServlet implements Crea
         super.unbindPrincipalNameFilter(filter);
     }
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    @Override
+    protected void bindPropertyDefinitionCache(PropertyDefinitionCache cache) {
+        super.bindPropertyDefinitionCache(cache);
+    }
+
+    @Override
+    protected void unbindPropertyDefinitionCache(PropertyDefinitionCache cache) { // NOSONAR
+        super.unbindPropertyDefinitionCache(cache);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.usermanager.impl.post.AbstractAuthorizablePostServlet#bindSystemUserManagerPaths(org.apache.sling.jackrabbit.usermanager.impl.resource.SystemUserManagerPaths)
      */
@@ -202,7 +223,8 @@ public class CreateGroupServlet extends AbstractGroupPostServlet implements Crea
         Group group = createGroup(session, 
                 principalName, 
                 request.getRequestParameterMap(), 
-                changes);
+                changes,
+                request.getResourceResolver());
 
         String groupPath = systemUserManagerPaths.getGroupPrefix()
             + group.getID();
@@ -213,12 +235,35 @@ public class CreateGroupServlet extends AbstractGroupPostServlet implements Crea
         
     }
     
+    /* (non-Javadoc)
+     * @see org.apache.sling.jackrabbit.usermanager.CreateGroup#getPrincipalNames(javax.jcr.Session, java.util.List)
+     */
+    @Override
+    public List<String> getPrincipalNames(Session jcrSession, List<Map<String, ?>> propertiesList)
+            throws RepositoryException {
+        if (jcrSession == null) {
+            throw new IllegalArgumentException("JCR Session not found");
+        }
+        return getOrGeneratePrincipalNames(jcrSession, propertiesList, AuthorizableType.GROUP);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.usermanager.CreateGroup#createGroup(javax.jcr.Session, java.lang.String, java.util.Map, java.util.List)
      */
     public Group createGroup(Session jcrSession, final String name,
             Map<String, ?> properties, List<Modification> changes)
             throws RepositoryException {
+        return createGroup(jcrSession, name, properties, changes, null);
+    }
+
+    /**
+     * Creates the group, resolving relative member paths with the supplied
+     * resolver or, if there is none, with one that is only opened when needed
+     */
+    private Group createGroup(Session jcrSession, final String name,
+            Map<String, ?> properties, List<Modification> changes,
+            @Nullable ResourceResolver resourceResolver)
+            throws RepositoryException {
         // check that the parameter values have valid values.
         if (jcrSession == null) {
             throw new IllegalArgumentException("JCR Session not found");
@@ -246,35 +291,30 @@ public class CreateGroupServlet extends AbstractGroupPostServlet implements Crea
                     + principalName);
         } else {
             group = userManager.createGroup(() -> principalName);
+            UnknownAuthorizableCache unknownCache = this.unknownAuthorizableCache;
+            if (unknownCache != null) {
+                unknownCache.invalidate(principalName);
+            }
 
             String groupPath = systemUserManagerPaths.getGroupPrefix()
                 + group.getID();
             
-            Map<String, RequestProperty> reqPropertiesMap = collectContentMap(properties);
+            PropertyPlan plan = getPropertyPlan(properties.keySet());
+            Map<String, RequestProperty> reqPropertiesMap = collectContentMap(plan, properties);
             Collection<RequestProperty> reqPropertyValues = reqPropertiesMap.values();
             changes.add(Modification.onCreated(groupPath));
 
             // ensure root of new content with the expected primary/mixin types
-            processCreate(jcrSession, group, reqPropertiesMap, changes);
+            processCreate(jcrSession, group, plan, reqPropertiesMap, changes);
 
             // write content from form
             writeContent(jcrSession, group, reqPropertyValues, changes);
 
-            // update the group memberships
-            ResourceResolver resourceResolver = null;
-            try {
-                //create a resource resolver to resolve the relative paths used for group membership values
-                final Map<String, Object> authInfo = new HashMap<>();
-                authInfo.put(org.apache.sling.jcr.resource.api.JcrResourceConstants.AUTHENTICATION_INFO_SESSION, jcrSession);
-                resourceResolver = resourceResolverFactory.getResourceResolver(authInfo);
-                Resource baseResource = resourceResolver.getResource(systemUserManagerPaths.getGroupsPath());
-                updateGroupMembership(baseResource, properties, group, changes);
-            } catch (LoginException e) {
-                throw new RepositoryException(e);
-            } finally {
-                if (resourceResolver != null) {
-                    resourceResolver.close();
-                }
+            // update the group memberships, member ids are resolved through the
+            // user manager and only relative paths need the resource resolver
+            try (MemberResolver members = new MemberResolver(jcrSession, userManager,
+                    resourceResolver, resourceResolverFactory, systemUserManagerPaths.getGroupsPath())) {
+                updateGroupMembership(members, properties, group, changes);
             }
         }
         
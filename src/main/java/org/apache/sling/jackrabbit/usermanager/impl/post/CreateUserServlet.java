@@ -20,23 +20,26 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import javax.jcr.AccessDeniedException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.security.AccessControlManager;
-import javax.jcr.security.Privilege;
 import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
 
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
-import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
 import org.apache.jackrabbit.oak.spi.security.user.AuthorizableType;
-import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
 import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.security.user.util.PasswordUtil;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.jackrabbit.usermanager.CreateUser;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameFilter;
 import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache.Capabilities;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.PropertyDefinitionCache;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.UnknownAuthorizableCache;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.api.SlingRepository;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
@@ -47,6 +50,7 @@ import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.PostResponseCreator;
 import org.apache.sling.servlets.post.SlingPostConstants;
 import org.apache.sling.servlets.post.impl.helper.RequestProperty;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
@@ -90,6 +94,10 @@ import org.slf4j.LoggerFactory;
  * <dd>The password of the new user (required)</dd>
  * <dt>:pwdConfirm</dt>
  * <dd>The password of the new user (required)</dd>
+ * <dt>pwdHash</dt>
+ * <dd>The already hashed password of the new user, in the hash format of the repository, which
+ * is stored without hashing it again. Only user administrators can submit it, and only instead of
+ * the password and its confirmation (optional)</dd>
  * <dt>*</dt>
  * <dd>Any additional parameters become properties of the user node (optional)</dd>
  * </dl>
@@ -98,6 +106,9 @@ import org.slf4j.LoggerFactory;
  * <dt>200</dt>
  * <dd>Success, a redirect is sent to the users resource locator. The redirect comes with
  * HTML describing the status.</dd>
+ * <dt>429</dt>
+ * <dd>An anonymous self-registration was rejected by the admission control, the client
+ * should try again later.</dd>
  * <dt>500</dt>
  * <dd>Failure, including user already exists. HTML explains the failure.</dd>
  * </dl>
@@ -124,6 +135,11 @@ import org.slf4j.LoggerFactory;
 public class CreateUserServlet extends AbstractAuthorizablePostServlet implements CreateUser {
     private static final long serialVersionUID = 6871481922737658675L;
 
+    /**
+     * The name of the parameter with an already hashed password
+     */
+    public static final String PARAM_PASSWORD_HASH = "pwdHash";
+
     @ObjectClassDefinition(name = "Apache Sling Create User",
             description = "The Sling operation to handle create user requests in Sling.")
     public @interface Config {
@@ -152,21 +168,44 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
     @Reference
     private transient ServiceUserMapped serviceUserMapped;
     
-    private String usersPath;
-    
-    @Reference(cardinality=ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
-    private void bindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
-        usersPath = (String)properties.get(UserConstants.PARAM_USER_PATH);
-    }
-    @SuppressWarnings("unused")
-    private void unbindUserConfiguration(UserConfiguration userConfig, Map<String, Object> properties) {
-        usersPath = null;
-    }
-    
+    /**
+     * The capabilities of the session users, shared with the other servlets
+     */
+    @Reference
+    private transient EffectiveCapabilityCache capabilityCache;
+
+    /**
+     * Optional cache of the principal ids that recently did not resolve
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private transient volatile UnknownAuthorizableCache unknownAuthorizableCache;
+
+    /**
+     * Optional pool of the service sessions used for self-registration
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private transient volatile ServiceSessionPool serviceSessionPool;
+
+    /**
+     * Optional admission control for anonymous self-registration
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private transient volatile SelfRegistrationAdmissionController admissionController;
+
     /**
      * Returns an administrative session to the default workspace.
      */
     private Session getSession() throws RepositoryException {
+        ServiceSessionPool pool = this.serviceSessionPool;
+        if (pool != null) {
+            return pool.borrow();
+        }
         return repository.loginService(null, null);
     }
 
@@ -174,7 +213,10 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
      * Return the administrative session and close it.
      */
     private void ungetSession(final Session session) {
-        if (session != null) {
+        ServiceSessionPool pool = this.serviceSessionPool;
+        if (pool != null) {
+            pool.release(session);
+        } else if (session != null) {
             try {
                 session.logout();
             } catch (Exception t) {
@@ -223,6 +265,19 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
         super.unbindPrincipalNameFilter(filter);
     }
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    @Override
+    protected void bindPropertyDefinitionCache(PropertyDefinitionCache cache) {
+        super.bindPropertyDefinitionCache(cache);
+    }
+
+    @Override
+    protected void unbindPropertyDefinitionCache(PropertyDefinitionCache cache) { // NOSONAR
+        super.unbindPropertyDefinitionCache(cache);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.usermanager.impl.post.AbstractAuthorizablePostServlet#bindSystemUserManagerPaths(org.apache.sling.jackrabbit.usermanager.impl.resource.SystemUserManagerPaths)
      */
@@ -268,12 +323,18 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
 
         Session session = request.getResourceResolver().adaptTo(Session.class);
         String principalName = request.getParameter(SlingPostConstants.RP_NODE_NAME);
-        User user = createUser(session,
+        User user;
+        // admit anonymous self-registrations before the repository gets involved
+        try (SelfRegistrationAdmissionController.Permit permit = admit(request)) { // NOSONAR
+            user = createUser(request,
+                            session,
                             principalName,
                             request.getParameter("pwd"),
                             request.getParameter("pwdConfirm"),
+                            request.getParameter(PARAM_PASSWORD_HASH),
                             request.getRequestParameterMap(),
                             changes);
+        }
 
         String userPath = null;
         if (user == null) {
@@ -296,6 +357,38 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
                 systemUserManagerPaths.getUsersPath()));
     }
 
+    /**
+     * Applies the admission control to anonymous requests when self-registration
+     * is enabled. Authenticated callers are not limited since they either are
+     * administrators or are accountable for their requests.
+     *
+     * @return the permit to close once the user is created or null if the request is not limited
+     */
+    private @Nullable SelfRegistrationAdmissionController.Permit admit(SlingHttpServletRequest request) {
+        SelfRegistrationAdmissionController controller = this.admissionController;
+        if (controller == null || !selfRegistrationEnabled || !isAnonymous(request)) {
+            return null;
+        }
+        return controller.admit(controller.getClientKey(request));
+    }
+
+    private static boolean isAnonymous(SlingHttpServletRequest request) {
+        return request.getRemoteUser() == null
+                || UserConstants.DEFAULT_ANONYMOUS_ID.equals(request.getResourceResolver().getUserID());
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jackrabbit.usermanager.CreateUser#getPrincipalNames(javax.jcr.Session, java.util.List)
+     */
+    @Override
+    public List<String> getPrincipalNames(Session jcrSession, List<Map<String, ?>> propertiesList)
+            throws RepositoryException {
+        if (jcrSession == null) {
+            throw new IllegalArgumentException("JCR Session not found");
+        }
+        return getOrGeneratePrincipalNames(jcrSession, propertiesList, AuthorizableType.USER);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.usermanager.CreateUser#createUser(javax.jcr.Session, java.lang.String, java.lang.String, java.lang.String, java.util.Map, java.util.List)
      */
@@ -306,6 +399,24 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
                             Map<String, ?> properties,
                             List<Modification> changes)
             throws RepositoryException {
+        return createUser(null, jcrSession, name, password, passwordConfirm, null, properties, changes);
+    }
+
+    /**
+     * Creates the user either with a plain text password that gets hashed or
+     * with a password that was already hashed in the format of the repository,
+     * e.g. when migrating users from another system.
+     * The capabilities of the session user are remembered in the request, if any.
+     */
+    private User createUser(@Nullable ServletRequest request,
+                            Session jcrSession,
+                            String name,
+                            String password,
+                            String passwordConfirm,
+                            String passwordHash,
+                            Map<String, ?> properties,
+                            List<Modification> changes)
+            throws RepositoryException {
 
         if (jcrSession == null) {
             throw new RepositoryException("JCR Session not found");
@@ -321,21 +432,9 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
         // check for an administrator
         boolean administrator = false;
         try {
-            UserManager um = AccessControlUtil.getUserManager(jcrSession);
-            User currentUser = (User) um.getAuthorizable(jcrSession.getUserID());
-            administrator = currentUser.isAdmin();
-
-            if (!administrator && usersPath != null) {
-                //check if the current user has the minimum privileges needed to create a user
-                AccessControlManager acm = jcrSession.getAccessControlManager();
-                administrator = acm.hasPrivileges(usersPath, new Privilege[] {
-                                        acm.privilegeFromName(Privilege.JCR_READ),
-                                        acm.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL),
-                                        acm.privilegeFromName(Privilege.JCR_MODIFY_ACCESS_CONTROL),
-                                        acm.privilegeFromName(PrivilegeConstants.REP_WRITE),
-                                        acm.privilegeFromName(PrivilegeConstants.REP_USER_MANAGEMENT)
-                                });
-            }
+            Capabilities capabilities = capabilityCache.get(request, jcrSession);
+            //check if the current user has the minimum privileges needed to create a user
+            administrator = capabilities.isAdmin() || capabilities.canManageUsers();
         } catch ( Exception ex ) {
             log.warn("Failed to determine if the user is an admin, assuming not. Cause: {}", ex.getMessage());
             administrator = false;
@@ -353,12 +452,28 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
         if (principalName == null || principalName.length() == 0) {
             throw new RepositoryException("User name was not submitted");
         }
-        if (password == null) {
-            throw new RepositoryException("Password was not submitted");
-        }
-        if (!password.equals(passwordConfirm)) {
-            throw new RepositoryException(
-                "Password value does not match the confirmation password");
+        if (passwordHash != null) {
+            if (password != null || passwordConfirm != null) {
+                throw new RepositoryException(
+                    "Either a password or a password hash can be submitted, but not both");
+            }
+            if (!administrator) {
+                throw new AccessDeniedException(
+                    "Only user administrators can submit a password hash");
+            }
+            // the user manager stores a password that is not plain text without hashing it again
+            if (PasswordUtil.isPlainTextPassword(passwordHash)) {
+                throw new RepositoryException("The password hash is not in a supported format");
+            }
+            password = passwordHash;
+        } else {
+            if (password == null) {
+                throw new RepositoryException("Password was not submitted");
+            }
+            if (!password.equals(passwordConfirm)) {
+                throw new RepositoryException(
+                    "Password value does not match the confirmation password");
+            }
         }
 
         User user = null;
@@ -382,16 +497,25 @@ public class CreateUserServlet extends AbstractAuthorizablePostServlet implement
                         + principalName);
             } else {
                 user = userManager.createUser(principalName, password);
+                UnknownAuthorizableCache unknownCache = this.unknownAuthorizableCache;
+                if (unknownCache != null) {
+                    unknownCache.invalidate(principalName);
+                }
                 String userPath = systemUserManagerPaths.getUserPrefix()
                     + user.getID();
 
-                Map<String, RequestProperty> reqPropertiesMap = collectContentMap(properties);
+                PropertyPlan plan = getPropertyPlan(properties.keySet());
+                Map<String, RequestProperty> reqPropertiesMap = collectContentMap(plan, properties);
+                if (passwordHash != null) {
+                    // the hash is the password of the user, not one of its properties
+                    reqPropertiesMap.remove("/" + PARAM_PASSWORD_HASH);
+                }
                 Collection<RequestProperty> reqPropertyValues = reqPropertiesMap.values();
 
                 changes.add(Modification.onCreated(userPath));
 
                 // ensure root of new content with the expected primary/mixin types
-                processCreate(selfRegSession, user, reqPropertiesMap, changes);
+                processCreate(selfRegSession, user, plan, reqPropertiesMap, changes);
 
                 // write content from form
                 writeContent(selfRegSession, user, reqPropertyValues, changes);
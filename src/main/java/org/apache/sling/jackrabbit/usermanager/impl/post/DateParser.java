@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the submitted date values with the formats configured through
+ * {@link AbstractAuthorizablePostServlet#PROP_DATE_FORMAT}.
+ * <p>
+ * The DateParser of the Sling POST servlets parses every value with shared
+ * SimpleDateFormat instances while holding a lock, so concurrent requests
+ * wait on each other. Here the formats whose pattern letters mean the same
+ * for SimpleDateFormat and java.time are compiled once into immutable
+ * java.time formatters that can be used by any number of threads. The other
+ * formats are parsed with a copy of their SimpleDateFormat, so they keep
+ * their meaning.
+ * </p>
+ * <p>
+ * As with SimpleDateFormat, parsing is lenient and text after the date is
+ * ignored. The formats are always tried in the configured order and the
+ * first one that matches wins.
+ * </p>
+ */
+final class DateParser {
+
+    /**
+     * The format name of the ISO8601 date and time format
+     */
+    static final String ISO8601 = "ISO8601";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DateParser.class);
+
+    /**
+     * The pattern letters java.time interprets like SimpleDateFormat, mapped
+     * to the maximum number of repetitions that keeps the meaning. A year
+     * needs at least three letters since SimpleDateFormat puts abbreviated
+     * years into a sliding century while java.time puts them into 2000-2099.
+     */
+    private static final String SAME_LETTERS = "GyMdDEaHkKhmsX";
+    private static final int[] MIN_COUNT = { 1, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 };
+    private static final int[] MAX_COUNT = { 4, 4, 4, 2, 3, 4, 1, 2, 2, 2, 2, 2, 2, 3 };
+
+    private volatile Format[] formats = new Format[0];
+
+    /**
+     * Adds a format to try after the ones registered before
+     *
+     * @param pattern the date format pattern or {@link #ISO8601}
+     */
+    synchronized void register(@NotNull String pattern) {
+        Format format;
+        try {
+            format = Format.compile(pattern);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unable to register date format {}: {}", pattern, e.getMessage());
+            return;
+        }
+        Format[] extended = Arrays.copyOf(formats, formats.length + 1);
+        extended[formats.length] = format;
+        formats = extended;
+    }
+
+    /**
+     * Parses the value with the first format that matches it
+     *
+     * @param value the value to parse
+     * @return the parsed date or null if no format matches
+     */
+    @Nullable Calendar parse(@NotNull String value) {
+        for (Format format : formats) {
+            Calendar c = format.parse(value);
+            if (c != null) {
+                return c;
+            }
+        }
+        LOG.debug("Failed parsing {} with any of the date formats", value);
+        return null;
+    }
+
+    /**
+     * Parses all the values
+     *
+     * @param values the values to parse
+     * @param factory the factory to create the values with
+     * @return the date values or null if any of the values does not match a format
+     */
+    @Nullable Value[] parse(@NotNull String[] values, @NotNull ValueFactory factory) {
+        Calendar[] dates = new Calendar[values.length];
+        for (int i = 0; i < values.length; i++) {
+            dates[i] = parse(values[i]);
+            if (dates[i] == null) {
+                return null;
+            }
+        }
+        Value[] result = new Value[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            result[i] = factory.createValue(dates[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if java.time gives the pattern the same meaning as SimpleDateFormat
+     *
+     * @param pattern the SimpleDateFormat pattern
+     * @return true if all pattern letters have the same meaning
+     */
+    static boolean hasSameMeaning(@NotNull String pattern) {
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // quoted text, two quotes are a quote
+                int end = pattern.indexOf('\'', i + 1);
+                if (end == -1) {
+                    return false;
+                }
+                i = end + 1;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                int count = 1;
+                while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                    count++;
+                }
+                int letter = SAME_LETTERS.indexOf(c);
+                if (letter == -1 || count < MIN_COUNT[letter] || count > MAX_COUNT[letter]) {
+                    return false;
+                }
+                i += count;
+            } else if ("[]{}#".indexOf(c) != -1) {
+                // reserved or optional sections for java.time, literals for SimpleDateFormat
+                return false;
+            } else {
+                i++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One of the configured formats
+     */
+    private abstract static class Format {
+
+        static @NotNull Format compile(@NotNull String pattern) {
+            if (ISO8601.equalsIgnoreCase(pattern)) {
+                return new JavaTimeFormat(pattern, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            }
+            if (hasSameMeaning(pattern)) {
+                try {
+                    DateTimeFormatter formatter = new DateTimeFormatterBuilder()
+                            .parseCaseInsensitive()
+                            .parseLenient()
+                            .appendPattern(pattern)
+                            .toFormatter(Locale.US)
+                            .withResolverStyle(ResolverStyle.LENIENT);
+                    return new JavaTimeFormat(pattern, formatter);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Date format {} is not supported by java.time: {}", pattern, e.getMessage());
+                }
+            }
+            return new SimpleFormat(pattern);
+        }
+
+        /**
+         * @param value the value to parse
+         * @return the parsed date or null if the value does not match
+         */
+        abstract @Nullable Calendar parse(@NotNull String value);
+
+        static @NotNull Calendar toCalendar(long millis) {
+            Calendar c = Calendar.getInstance();
+            c.setTimeInMillis(millis);
+            return c;
+        }
+    }
+
+    /**
+     * A format compiled into an immutable, thread-safe formatter
+     */
+    private static final class JavaTimeFormat extends Format {
+        private final String pattern;
+        private final DateTimeFormatter formatter;
+
+        private JavaTimeFormat(String pattern, DateTimeFormatter formatter) {
+            this.pattern = pattern;
+            this.formatter = formatter;
+        }
+
+        @Override
+        @Nullable Calendar parse(@NotNull String value) {
+            // find out if the value matches without the cost of an exception
+            ParsePosition position = new ParsePosition(0);
+            if (formatter.parseUnresolved(value, position) == null) {
+                return null;
+            }
+            try {
+                TemporalAccessor parsed = formatter.parse(value.substring(0, position.getIndex()));
+                LocalDate date = parsed.query(TemporalQueries.localDate());
+                if (date == null) {
+                    return null;
+                }
+                LocalTime time = parsed.query(TemporalQueries.localTime());
+                ZoneId zone = parsed.query(TemporalQueries.zone());
+                ZonedDateTime dateTime = ZonedDateTime.of(date,
+                        time == null ? LocalTime.MIDNIGHT : time,
+                        zone == null ? ZoneId.systemDefault() : zone);
+                return toCalendar(dateTime.toInstant().toEpochMilli());
+            } catch (DateTimeException e) {
+                LOG.debug("Failed parsing {} with {}: {}", value, pattern, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A format java.time would interpret differently. SimpleDateFormat is not
+     * thread-safe, so every parse works on a copy instead of holding a lock.
+     */
+    private static final class SimpleFormat extends Format {
+        private final SimpleDateFormat prototype;
+
+        private SimpleFormat(String pattern) {
+            this.prototype = new SimpleDateFormat(pattern, Locale.US);
+        }
+
+        @Override
+        @Nullable Calendar parse(@NotNull String value) {
+            Date date = ((SimpleDateFormat) prototype.clone()).parse(value, new ParsePosition(0));
+            return date == null ? null : toCalendar(date.getTime());
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.Collections;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.jcr.resource.api.JcrResourceConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves the ":member" values of a group request to authorizables.
+ * <p>
+ * Values are looked up as ids through the {@link UserManager} first. Only
+ * when that fails they are treated as paths relative to a base resource, and
+ * only then a resource resolver is needed. The resolver of the caller is used
+ * if there is one, otherwise one is opened on the first fallback and closed
+ * together with this object.
+ * </p>
+ */
+final class MemberResolver implements AutoCloseable {
+
+    private final Session session;
+    private final UserManager userManager;
+    private final String basePath;
+    private final ResourceResolverFactory resolverFactory;
+
+    private ResourceResolver resolver;
+    private boolean ownsResolver;
+    private Resource baseResource;
+
+    /**
+     * @param session the session of the request
+     * @param userManager the user manager of the session
+     * @param resolver the resolver of the caller, or null to open one when needed
+     * @param resolverFactory the factory to open a resolver with
+     * @param basePath the path relative member paths are resolved against
+     */
+    MemberResolver(@NotNull Session session, @NotNull UserManager userManager,
+            @Nullable ResourceResolver resolver, @Nullable ResourceResolverFactory resolverFactory,
+            @NotNull String basePath) {
+        this.session = session;
+        this.userManager = userManager;
+        this.resolver = resolver;
+        this.resolverFactory = resolverFactory;
+        this.basePath = basePath;
+    }
+
+    /**
+     * Gets the member, assuming its a principal name, failing that it assumes it a path to the resource.
+     *
+     * @param member the token pointing to the member, either a name or a uri
+     * @return the authorizable, or null if no authorizable was found.
+     * @throws RepositoryException if no resource resolver could be opened
+     */
+    @Nullable Authorizable resolve(@NotNull String member) throws RepositoryException {
+        Authorizable memberAuthorizable = null;
+        try {
+            memberAuthorizable = userManager.getAuthorizable(member);
+        } catch (RepositoryException e) {
+            // if we can't find the members then it may be resolvable as a resource.
+        }
+        if (memberAuthorizable == null) {
+            Resource res = resolvePath(member);
+            if (res != null) {
+                memberAuthorizable = res.adaptTo(Authorizable.class);
+            }
+        }
+        return memberAuthorizable;
+    }
+
+    private @Nullable Resource resolvePath(String member) throws RepositoryException {
+        ResourceResolver rr = getResolver();
+        if (rr == null) {
+            return null;
+        }
+        if (baseResource == null) {
+            baseResource = rr.getResource(basePath);
+        }
+        if (baseResource == null) {
+            return member.startsWith("/") ? rr.getResource(member) : null;
+        }
+        return rr.getResource(baseResource, member);
+    }
+
+    private @Nullable ResourceResolver getResolver() throws RepositoryException {
+        if (resolver == null && resolverFactory != null) {
+            try {
+                resolver = resolverFactory.getResourceResolver(
+                        Collections.singletonMap(JcrResourceConstants.AUTHENTICATION_INFO_SESSION, session));
+                ownsResolver = true;
+            } catch (LoginException e) {
+                throw new RepositoryException(e);
+            }
+        }
+        return resolver;
+    }
+
+    @Override
+    public void close() {
+        if (ownsResolver) {
+            resolver.close();
+            resolver = null;
+            ownsResolver = false;
+        }
+    }
+
+}
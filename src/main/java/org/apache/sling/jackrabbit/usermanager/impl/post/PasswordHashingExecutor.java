@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Bounds the number of password changes submitted through the servlet, which
+ * derive an expensive password hash, that run at the same time. Once all
+ * permits are taken and enough requests are waiting for one, further
+ * password changes are rejected with 429 (Too Many Requests) instead of
+ * tying up more request threads.
+ * <p>
+ * The password change runs on the calling thread, since the JCR session of
+ * the request must not be used by another thread.
+ * </p>
+ */
+@Component(service = { PasswordHashingExecutor.class, PasswordHashingExecutorMBean.class },
+    property={
+            "service.description=Bounded executor for password changes",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=PasswordHashingExecutor"
+    })
+@Designate(ocd=PasswordHashingExecutor.Config.class)
+public class PasswordHashingExecutor implements PasswordHashingExecutorMBean {
+
+    @ObjectClassDefinition(name ="Apache Sling UserManager Password Hashing Executor",
+            description = "Limits the number of concurrent password changes")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Pool Size",
+                description = "The number of passwords hashed concurrently. Set to 0 to use the number of processors.")
+        int pool_size() default 0; //NOSONAR
+
+        @AttributeDefinition(name = "Queue Size",
+                description = "The number of password changes that can wait for their turn before further changes are rejected.")
+        int queue_size() default DEFAULT_QUEUE_SIZE; //NOSONAR
+    }
+
+    static final int DEFAULT_QUEUE_SIZE = 50;
+
+    /**
+     * HTTP status code for 429 Too Many Requests
+     */
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    /**
+     * null once deactivated, so always read it once into a local
+     */
+    private volatile Limits limits;
+
+    // ---------- SCR integration ---------------------------------------------
+
+    @Activate
+    protected void activate(Config config) {
+        configure(config.pool_size(), config.queue_size());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        limits = null;
+    }
+
+    void configure(int poolSize, int queueSize) {
+        int permits = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        limits = new Limits(permits, Math.max(1, queueSize));
+    }
+
+    /**
+     * Runs the password change on the calling thread once a permit is available
+     *
+     * @param task the password change
+     * @return the outcome of the task
+     * @throws RequestRejectedException with status 429 if too many password changes are pending
+     * @throws RepositoryException if the task failed or the executor was deactivated
+     */
+    public <T> T execute(@NotNull Callable<T> task) throws RepositoryException {
+        Limits l = limits;
+        if (l == null) {
+            throw new RepositoryException("The password hashing executor is not available");
+        }
+        acquire(l);
+        try {
+            T result = task.call();
+            completed.incrementAndGet();
+            return result;
+        } catch (RepositoryException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RepositoryException(e);
+        } finally {
+            l.permits.release();
+        }
+    }
+
+    private void acquire(@NotNull Limits l) throws RepositoryException {
+        if (l.permits.tryAcquire()) {
+            return;
+        }
+        int depth = waiting.incrementAndGet();
+        try {
+            if (depth > l.queueCapacity) {
+                rejected.incrementAndGet();
+                throw new RequestRejectedException(SC_TOO_MANY_REQUESTS,
+                        "Too many password changes in progress, please try again later");
+            }
+            peakQueueDepth.accumulateAndGet(depth, Math::max);
+            l.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the password change", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    // ---------- PasswordHashingExecutorMBean --------------------------------
+
+    @Override
+    public int getPoolSize() {
+        Limits l = limits;
+        return l == null ? 0 : l.poolSize;
+    }
+
+    @Override
+    public int getActiveCount() {
+        Limits l = limits;
+        return l == null ? 0 : l.poolSize - l.permits.availablePermits();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return waiting.get();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        Limits l = limits;
+        return l == null ? 0 : l.queueCapacity;
+    }
+
+    @Override
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * The permits and the bound on the waiting callers of one configuration
+     */
+    private static final class Limits {
+        private final int poolSize;
+        private final int queueCapacity;
+        private final Semaphore permits;
+
+        private Limits(int poolSize, int queueCapacity) {
+            this.poolSize = poolSize;
+            this.queueCapacity = queueCapacity;
+            this.permits = new Semaphore(poolSize);
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+/**
+ * JMX view of the {@link PasswordHashingExecutor} statistics
+ */
+public interface PasswordHashingExecutorMBean {
+
+    /**
+     * @return the maximum number of passwords hashed concurrently
+     */
+    int getPoolSize();
+
+    /**
+     * @return the number of passwords being hashed right now
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of password changes waiting for their turn
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the maximum number of password changes that can wait for their turn
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return the largest number of waiting password changes seen so far
+     */
+    int getPeakQueueDepth();
+
+    /**
+     * @return the number of completed password changes
+     */
+    long getCompletedCount();
+
+    /**
+     * @return the number of password changes rejected since the queue was full
+     */
+    long getRejectedCount();
+
+}
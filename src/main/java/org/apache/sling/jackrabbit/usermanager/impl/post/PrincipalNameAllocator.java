@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Query;
+import org.apache.jackrabbit.api.security.user.QueryBuilder;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator.NameInfo;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Makes generated principal names unique by appending the next free
+ * <code>_N</code> suffix.
+ * <p>
+ * The highest suffix in use for a name is found with a prefix query the
+ * first time the name collides, and remembered in a counter afterwards.
+ * Each later allocation then costs one lookup to confirm the name is still
+ * free, however many names with the same stem exist. A taken name, for
+ * example one created on another cluster node, makes the counter catch up
+ * with a new query.
+ * </p>
+ * <p>
+ * The prefix query is not cheap: the authorizableId property index of Oak
+ * only answers exact lookups, so a like condition on rep:authorizableId
+ * reads all the ids of the index (or traverses the authorizables without
+ * the index), in proportion to the number of authorizables. This cost is
+ * paid once per colliding stem and counter, not once per allocation.
+ * </p>
+ */
+final class PrincipalNameAllocator {
+
+    /**
+     * The maximum number of name stems to remember the counters of
+     */
+    private static final int MAX_STEMS = 1000;
+
+    /**
+     * The number of times the counter catches up before giving up
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * The number of name stems to look up with one query
+     */
+    private static final int MAX_STEMS_PER_QUERY = 100;
+
+    /**
+     * The longest suffix that is considered, longer ones can not be from this allocator
+     */
+    private static final int MAX_SUFFIX_LENGTH = 18;
+
+    /**
+     * the last allocated suffix by name stem, the least recently used stems
+     * are forgotten first
+     */
+    private final Map<String, AtomicLong> counters = new LinkedHashMap<String, AtomicLong>(16, 0.75f, true) {
+        private static final long serialVersionUID = 3419834523873436123L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AtomicLong> eldest) {
+            return size() > MAX_STEMS;
+        }
+    };
+
+    /**
+     * Returns the name if it is not used yet, otherwise the name with the
+     * next free suffix appended
+     *
+     * @param userManager the user manager of the session creating the authorizable
+     * @param principalName the generated principal name
+     * @return the unique principal name
+     * @throws RepositoryException if no unique name was found or the lookups failed
+     */
+    @NotNull String allocate(@NotNull UserManager userManager, @NotNull String principalName) throws RepositoryException {
+        if (userManager.getAuthorizable(principalName) == null) {
+            return principalName;
+        }
+        String candidate = principalName;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            AtomicLong counter;
+            synchronized (counters) {
+                counter = counters.get(principalName);
+            }
+            if (counter == null || attempt > 0) {
+                counter = catchUp(principalName, findHighestSuffix(userManager, principalName));
+            }
+            candidate = principalName + "_" + counter.incrementAndGet();
+            if (userManager.getAuthorizable(candidate) == null) {
+                return candidate;
+            }
+        }
+        throw new RepositoryException(
+            "Collision in generated principal names, generated name " + candidate + " already exists");
+    }
+
+    /**
+     * Makes the names of a batch unique against the repository and against
+     * each other. The name stems are looked up one by one and the ids with a
+     * suffix on any of them are read with one query per
+     * {@value #MAX_STEMS_PER_QUERY} stems, the rest is decided in memory.
+     *
+     * @param userManager the user manager of the session creating the authorizables
+     * @param nameInfos the generated names, null entries are skipped
+     * @return the unique names in the order of the infos, null for skipped entries
+     * @throws RepositoryException if the lookups failed
+     */
+    @NotNull List<String> allocateAll(@NotNull UserManager userManager, @NotNull List<NameInfo> nameInfos) throws RepositoryException {
+        Set<String> stems = new LinkedHashSet<>();
+        for (NameInfo nameInfo : nameInfos) {
+            if (nameInfo != null && nameInfo.getPrincipalName() != null && nameInfo.isMakeUnique()) {
+                stems.add(nameInfo.getPrincipalName());
+            }
+        }
+        Set<String> taken = findIds(userManager, stems);
+
+        Map<String, AtomicLong> batchCounters = new HashMap<>();
+        List<String> result = new ArrayList<>(nameInfos.size());
+        for (NameInfo nameInfo : nameInfos) {
+            String name = nameInfo == null ? null : nameInfo.getPrincipalName();
+            if (name != null && nameInfo.isMakeUnique() && taken.contains(name)) {
+                AtomicLong counter = batchCounters.computeIfAbsent(name, stem -> catchUp(stem, highestSuffix(taken, stem)));
+                String candidate;
+                do {
+                    candidate = name + "_" + counter.incrementAndGet();
+                } while (taken.contains(candidate));
+                name = candidate;
+            }
+            if (name != null) {
+                taken.add(name);
+            }
+            result.add(name);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the ids of the stems and of the names suffixed on them. The like
+     * conditions read all the authorizable ids, see the class comment.
+     */
+    private static @NotNull Set<String> findIds(@NotNull UserManager userManager, @NotNull Collection<String> stems) throws RepositoryException {
+        Set<String> ids = new HashSet<>();
+        for (String stem : stems) {
+            if (userManager.getAuthorizable(stem) != null) {
+                ids.add(stem);
+            }
+        }
+        List<String> chunk = new ArrayList<>(MAX_STEMS_PER_QUERY);
+        Iterator<String> stemIt = stems.iterator();
+        while (stemIt.hasNext()) {
+            chunk.add(stemIt.next());
+            if (chunk.size() == MAX_STEMS_PER_QUERY || !stemIt.hasNext()) {
+                final List<String> patterns = new ArrayList<>(chunk.size());
+                for (String stem : chunk) {
+                    // only the suffixed names, not every id that starts with the stem
+                    patterns.add(escapeLike(stem + "_") + "%");
+                }
+                Iterator<Authorizable> it = userManager.findAuthorizables(new Query() {
+                    @Override
+                    public <T> void build(QueryBuilder<T> builder) {
+                        builder.setSelector(Authorizable.class);
+                        T condition = null;
+                        for (String pattern : patterns) {
+                            T like = builder.like("@" + UserConstants.REP_AUTHORIZABLE_ID, pattern);
+                            condition = condition == null ? like : builder.or(condition, like);
+                        }
+                        builder.setCondition(condition);
+                    }
+                });
+                while (it.hasNext()) {
+                    ids.add(it.next().getID());
+                }
+                chunk.clear();
+            }
+        }
+        return ids;
+    }
+
+    private static long highestSuffix(@NotNull Set<String> ids, @NotNull String stem) {
+        String prefix = stem + "_";
+        long highest = 0;
+        for (String id : ids) {
+            if (id.startsWith(prefix)) {
+                highest = Math.max(highest, parseSuffix(id, prefix.length()));
+            }
+        }
+        return highest;
+    }
+
+    private @NotNull AtomicLong catchUp(@NotNull String stem, long highest) {
+        synchronized (counters) {
+            AtomicLong counter = counters.get(stem);
+            if (counter == null) {
+                counter = new AtomicLong(highest);
+                counters.put(stem, counter);
+            } else {
+                counter.accumulateAndGet(highest, Math::max);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * Finds the highest numeric suffix in use with one query for the ids
+     * starting with the stem followed by an underscore. The query reads all
+     * the authorizable ids, see the class comment.
+     */
+    private static long findHighestSuffix(@NotNull UserManager userManager, @NotNull String stem) throws RepositoryException {
+        final String prefix = stem + "_";
+        final String pattern = escapeLike(prefix) + "%";
+        Iterator<Authorizable> it = userManager.findAuthorizables(new Query() {
+            @Override
+            public <T> void build(QueryBuilder<T> builder) {
+                builder.setSelector(Authorizable.class);
+                builder.setCondition(builder.like("@" + UserConstants.REP_AUTHORIZABLE_ID, pattern));
+            }
+        });
+        long highest = 0;
+        while (it.hasNext()) {
+            String id = it.next().getID();
+            if (id.startsWith(prefix)) {
+                highest = Math.max(highest, parseSuffix(id, prefix.length()));
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @return the numeric suffix starting at the offset, or 0 if it is not a number
+     */
+    static long parseSuffix(@NotNull String id, int offset) {
+        int length = id.length() - offset;
+        if (length == 0 || length > MAX_SUFFIX_LENGTH) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = offset; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Escapes the wildcards of a like pattern
+     */
+    static @NotNull String escapeLike(@NotNull String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+}
@@ -83,6 +83,11 @@ public class PrincipalNameGeneratorImpl implements PrincipalNameGenerator {
 
     private int maxLength = DEFAULT_MAX_NAME_LENGTH;
 
+    /**
+     * The lookup steps compiled from the configuration
+     */
+    private volatile Step[] steps;
+
     public PrincipalNameGeneratorImpl() {
         this(null, -1);
     }
@@ -97,12 +102,33 @@ public class PrincipalNameGeneratorImpl implements PrincipalNameGenerator {
         this.maxLength = (maxNameLength > 0)
                 ? maxNameLength
                 : DEFAULT_MAX_NAME_LENGTH;
+        this.steps = compile(this.parameterNames);
     }
 
     @Activate
     protected void activate(Config config) {
         this.maxLength = config.principalNameMaxLength();
         this.parameterNames = config.principalNameHints();
+        this.steps = compile(this.parameterNames);
+    }
+
+    /**
+     * Compiles the lookup order into steps so each lookup does not have to
+     * concatenate the @ValueFrom parameter names again
+     *
+     * @param hintNames the configured principal name hint parameters
+     * @return the steps in the order they are tried
+     */
+    private static @NotNull Step[] compile(String[] hintNames) {
+        int hintCount = hintNames == null ? 0 : hintNames.length;
+        Step[] compiled = new Step[2 + hintCount];
+        // the exact name is used as is, everything else is filtered and made unique
+        compiled[0] = new Step(SlingPostConstants.RP_NODE_NAME, false);
+        compiled[1] = new Step(SlingPostConstants.RP_NODE_NAME_HINT, true);
+        for (int i = 0; i < hintCount; i++) {
+            compiled[2 + i] = new Step(hintNames[i], true);
+        }
+        return compiled;
     }
 
     /**
@@ -198,46 +224,97 @@ public class PrincipalNameGeneratorImpl implements PrincipalNameGenerator {
     @Override
     public NameInfo getPrincipalName(Map<String, ?> parameters, AuthorizableType type,
             PrincipalNameFilter principalNameFilter, PrincipalNameGenerator defaultPrincipalNameGenerator) {
-        String valueToUse = null;
-        boolean doFilter = true;
-
         // find the first request parameter that matches one of
-        // our parameterNames, in order, and has a value
-        // we first check for the special sling parameters
-        valueToUse = getValueToUse(parameters, SlingPostConstants.RP_NODE_NAME);
-        if (valueToUse != null) {
-            doFilter = false;
-        }
-        if ( valueToUse == null ) {
-            valueToUse = getValueToUse(parameters, SlingPostConstants.RP_NODE_NAME_HINT);
-
-            if (valueToUse == null && parameterNames != null) {
-                for (String param : parameterNames) {
-                    valueToUse = getValueToUse(parameters, param);
-                    if (valueToUse != null) {
-                        break;
+        // the steps, in order, and has a value
+        for (Step step : steps) {
+            String valueToUse = step.resolve(parameters);
+            if (valueToUse != null) {
+                String result = valueToUse;
+                if (step.filter) {
+                    if (principalNameFilter != null) {
+                        // filter value so that it works as a principal name
+                        result = principalNameFilter.filter(result);
+                    }
+                    // max length
+                    if (result != null && result.length() > maxLength) {
+                        result = result.substring(0, maxLength);
                     }
                 }
+                return result == null ? null : new NameInfo(result, step.filter);
             }
         }
+        return null;
+    }
 
-        String result = valueToUse;
-        // should we filter?
-        if (doFilter && result != null && principalNameFilter != null) {
-            // filter value so that it works as a principal name
-            result = principalNameFilter.filter(result);
-        }
+    /**
+     * One parameter of the lookup order with its precomputed @ValueFrom name.
+     * The values are read in place, without converting them to a list first.
+     */
+    private static final class Step {
+        private final String name;
+        private final String valueFromName;
+        private final boolean filter;
 
-        // max length
-        if (doFilter && result != null && result.length() > maxLength) {
-            result = result.substring(0, maxLength);
+        private Step(String name, boolean filter) {
+            this.name = name;
+            this.valueFromName = name + SlingPostConstants.VALUE_FROM_SUFFIX;
+            this.filter = filter;
         }
 
-        if (result != null) {
-            return new NameInfo(result, doFilter);
-        } else {
+        /**
+         * Same as {@link PrincipalNameGeneratorImpl#getValueToUse(Map, String)}
+         */
+        private String resolve(Map<String, ?> parameters) {
+            Object value = parameters.get(name);
+            int count = count(value);
+            if (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    String candidate = valueAt(value, i);
+                    if (candidate != null && !candidate.isEmpty()) {
+                        return candidate;
+                    }
+                }
+                return null;
+            }
+            // SLING-130: VALUE_FROM_SUFFIX means take the value of this
+            // property from a different field
+            Object valueFrom = parameters.get(valueFromName);
+            int valueFromCount = count(valueFrom);
+            for (int i = 0; i < valueFromCount; i++) {
+                String ref = valueAt(valueFrom, i);
+                if (ref != null && !ref.isEmpty()) {
+                    // @ValueFrom params must have exactly one value, else ignored
+                    Object refValue = parameters.get(ref);
+                    if (count(refValue) == 1) {
+                        String candidate = valueAt(refValue, 0);
+                        if (candidate != null && !candidate.isEmpty()) {
+                            return candidate;
+                        }
+                    }
+                }
+            }
             return null;
         }
+
+        private static int count(Object value) {
+            if (value instanceof String[]) {
+                return ((String[])value).length;
+            } else if (value instanceof String) {
+                return 1;
+            } else if (value instanceof RequestParameter[]) {
+                return ((RequestParameter[])value).length;
+            }
+            return 0;
+        }
+
+        private static String valueAt(Object value, int index) {
+            if (value instanceof String[]) {
+                return ((String[])value)[index];
+            } else if (value instanceof String) {
+                return (String)value;
+            }
+            return ((RequestParameter[])value)[index].getString();
+        }
     }
 
 }
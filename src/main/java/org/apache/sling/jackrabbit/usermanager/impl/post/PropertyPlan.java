@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The outcome of classifying a set of request parameter names: which
+ * parameters contribute to which property and how. The plan only depends
+ * on the parameter names, so it is immutable and can be applied to any
+ * number of parameter maps with the same names, which is why the servlets
+ * remember the plans of the parameter sets they have seen.
+ */
+public final class PropertyPlan {
+
+    /**
+     * How a parameter contributes to its property
+     */
+    enum Kind {
+        /** the values of the property */
+        VALUE,
+        /** the @TypeHint suffix */
+        TYPE_HINT,
+        /** the @DefaultValue suffix */
+        DEFAULT_VALUE,
+        /** the @ValueFrom suffix */
+        VALUE_FROM,
+        /** the @Delete suffix */
+        DELETE
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(PropertyPlan.class);
+
+    private static final String STRUCTURAL_PRIMARY_TYPE = "/".concat(JcrConstants.JCR_PRIMARYTYPE);
+    private static final String STRUCTURAL_MIXIN_TYPES = "/".concat(JcrConstants.JCR_MIXINTYPES);
+
+    /**
+     * the names of the parameters that contribute to a property
+     */
+    private final String[] paramNames;
+
+    /**
+     * for each parameter, how it contributes
+     */
+    private final Kind[] kinds;
+
+    /**
+     * for each parameter, the index of the property path it contributes to
+     */
+    private final int[] targets;
+
+    /**
+     * the distinct property paths in the order they were first seen
+     */
+    private final String[] propertyPaths;
+
+    /**
+     * the property paths naming a primary type or mixins of a node
+     */
+    private final String[] structuralPaths;
+
+    private PropertyPlan(String[] paramNames, Kind[] kinds, int[] targets, String[] propertyPaths) {
+        this.paramNames = paramNames;
+        this.kinds = kinds;
+        this.targets = targets;
+        this.propertyPaths = propertyPaths;
+
+        List<String> structural = new ArrayList<>();
+        for (String propertyPath : propertyPaths) {
+            if (propertyPath.endsWith(STRUCTURAL_PRIMARY_TYPE) || propertyPath.endsWith(STRUCTURAL_MIXIN_TYPES)) {
+                structural.add(propertyPath);
+            }
+        }
+        this.structuralPaths = structural.toArray(new String[structural.size()]);
+    }
+
+    /**
+     * Classifies each parameter name in a single scan
+     *
+     * @param names the names of the request parameters
+     * @return the plan
+     */
+    public static @NotNull PropertyPlan compile(@NotNull Collection<String> names) {
+        int size = names.size();
+        String[] candidateNames = new String[size];
+        Kind[] candidateKinds = new Kind[size];
+        String[] candidatePaths = new String[size];
+        boolean[] prefixed = new boolean[size];
+        boolean requireItemPrefix = false;
+        int count = 0;
+        for (String paramName : names) {
+            // do not store parameters with names starting with sling:post
+            // SLING-298: skip form encoding parameter
+            if (paramName.startsWith(SlingPostConstants.RP_PREFIX) || paramName.equals("_charset_")) {
+                continue;
+            }
+
+            // ensure the paramName is an absolute property path (i.e. starts with "/", where root refers to the authorizable's root, https://issues.apache.org/jira/browse/SLING-1577)
+            boolean relativeCurrent = paramName.startsWith(SlingPostConstants.ITEM_PREFIX_RELATIVE_CURRENT);
+            requireItemPrefix |= relativeCurrent;
+            String propPath = relativeCurrent ? paramName.substring(1) : "/".concat(paramName);
+            if (propPath.contains("..")) {
+                // it is not supported to set properties potentially outside of the authorizable node
+                LOG.warn("Property path containing '..' is not supported, skipping parameter {}", paramName);
+                continue;
+            }
+
+            Kind kind = Kind.VALUE;
+            int at = propPath.lastIndexOf('@');
+            if (at != -1) {
+                switch (propPath.substring(at)) {
+                    case SlingPostConstants.TYPE_HINT_SUFFIX:
+                        kind = Kind.TYPE_HINT;
+                        break;
+                    case SlingPostConstants.DEFAULT_VALUE_SUFFIX:
+                        kind = Kind.DEFAULT_VALUE;
+                        break;
+                    case SlingPostConstants.VALUE_FROM_SUFFIX:
+                        kind = Kind.VALUE_FROM;
+                        break;
+                    case SlingPostConstants.SUFFIX_DELETE:
+                        kind = Kind.DELETE;
+                        break;
+                    case SlingPostConstants.SUFFIX_MOVE_FROM:
+                    case SlingPostConstants.SUFFIX_COPY_FROM:
+                        // don't support @MoveFrom or @CopyFrom here
+                        LOG.warn("Suffix {} not supported, skipping parameter {}", propPath.substring(at), paramName);
+                        continue;
+                    default:
+                        // not a known suffix, so part of the property name
+                        break;
+                }
+                if (kind != Kind.VALUE) {
+                    propPath = propPath.substring(0, at);
+                }
+            }
+
+            candidateNames[count] = paramName;
+            candidateKinds[count] = kind;
+            candidatePaths[count] = propPath;
+            prefixed[count] = relativeCurrent
+                    || paramName.startsWith(SlingPostConstants.ITEM_PREFIX_ABSOLUTE)
+                    || paramName.startsWith(SlingPostConstants.ITEM_PREFIX_RELATIVE_PARENT);
+            count++;
+        }
+
+        // skip parameters that do not start with the save prefix
+        List<String> paramNames = new ArrayList<>(count);
+        List<Kind> kinds = new ArrayList<>(count);
+        int[] targets = new int[count];
+        Map<String, Integer> pathIndexes = new HashMap<>();
+        List<String> propertyPaths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (requireItemPrefix && !prefixed[i]) {
+                continue;
+            }
+            Integer index = pathIndexes.get(candidatePaths[i]);
+            if (index == null) {
+                index = propertyPaths.size();
+                pathIndexes.put(candidatePaths[i], index);
+                propertyPaths.add(candidatePaths[i]);
+            }
+            targets[paramNames.size()] = index;
+            paramNames.add(candidateNames[i]);
+            kinds.add(candidateKinds[i]);
+        }
+        int[] compactTargets = new int[paramNames.size()];
+        System.arraycopy(targets, 0, compactTargets, 0, compactTargets.length);
+        return new PropertyPlan(paramNames.toArray(new String[paramNames.size()]),
+                kinds.toArray(new Kind[kinds.size()]),
+                compactTargets,
+                propertyPaths.toArray(new String[propertyPaths.size()]));
+    }
+
+    /**
+     * @return the number of parameters that contribute to a property
+     */
+    int getParameterCount() {
+        return paramNames.length;
+    }
+
+    /**
+     * @param index the index of the parameter
+     * @return the name of the parameter
+     */
+    String getParameterName(int index) {
+        return paramNames[index];
+    }
+
+    /**
+     * @param index the index of the parameter
+     * @return how the parameter contributes to its property
+     */
+    Kind getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @param index the index of the parameter
+     * @return the index of the property path the parameter contributes to
+     */
+    int getTarget(int index) {
+        return targets[index];
+    }
+
+    /**
+     * @return the distinct property paths, the caller must not modify the array
+     */
+    String[] getPropertyPaths() {
+        return propertyPaths;
+    }
+
+    /**
+     * @return the property paths naming the primary type or the mixins of a node,
+     *          the caller must not modify the array
+     */
+    String[] getStructuralPaths() {
+        return structuralPaths;
+    }
+
+}
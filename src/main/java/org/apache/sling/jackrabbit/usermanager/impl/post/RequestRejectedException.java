@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import org.apache.sling.api.SlingException;
+
+/**
+ * Thrown to reject a request with a specific status code before any
+ * changes were made
+ */
+public class RequestRejectedException extends SlingException {
+
+    private static final long serialVersionUID = 4870916362457710321L;
+
+    private final int status;
+
+    /**
+     * @param status the HTTP status code of the response
+     * @param message the status message of the response
+     */
+    public RequestRejectedException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return the HTTP status code of the response
+     */
+    public int getStatus() {
+        return status;
+    }
+
+}
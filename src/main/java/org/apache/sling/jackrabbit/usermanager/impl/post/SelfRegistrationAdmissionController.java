@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Decides whether an anonymous self-registration may proceed before it
+ * touches the repository. Every client key gets a token bucket that limits
+ * its rate of registrations, and a global cap limits the number of
+ * registrations in progress.
+ */
+@Component(service = { SelfRegistrationAdmissionController.class, SelfRegistrationAdmissionControllerMBean.class },
+    property={
+            "service.description=Admission control for user self-registration",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=SelfRegistrationAdmissionController"
+    })
+@Designate(ocd=SelfRegistrationAdmissionController.Config.class)
+public class SelfRegistrationAdmissionController implements SelfRegistrationAdmissionControllerMBean {
+
+    @ObjectClassDefinition(name ="Apache Sling UserManager Self-Registration Admission Controller",
+            description = "Limits the rate and the concurrency of anonymous user self-registrations")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Rate",
+                description = "The number of self-registrations per minute allowed for a single client. Set to 0 to not limit the rate.")
+        int rate() default DEFAULT_RATE; //NOSONAR
+
+        @AttributeDefinition(name = "Burst",
+                description = "The number of self-registrations a single client can make in a row before the rate applies.")
+        int burst() default DEFAULT_BURST; //NOSONAR
+
+        @AttributeDefinition(name = "Maximum Concurrent",
+                description = "The number of self-registrations that can be in progress at the same time. Set to 0 to not limit the concurrency.")
+        int max_concurrent() default DEFAULT_MAX_CONCURRENT; //NOSONAR
+
+        @AttributeDefinition(name = "Maximum Clients",
+                description = "The number of clients whose rate is tracked, the least recently seen are forgotten first.")
+        int max_clients() default DEFAULT_MAX_CLIENTS; //NOSONAR
+
+        @AttributeDefinition(name = "Client Address Header",
+                description = "The name of the header, e.g. X-Forwarded-For, that a trusted reverse proxy sets to the list of " +
+                        "the forwarded client addresses. The last address, added by the proxy in front of this server, identifies " +
+                        "the client. Leave empty to identify the client by the remote address of the request. Only set this " +
+                        "when all requests pass the proxy, otherwise clients can choose their own identity.")
+        String client_address_header() default ""; //NOSONAR
+    }
+
+    static final int DEFAULT_RATE = 6;
+
+    static final int DEFAULT_BURST = 3;
+
+    static final int DEFAULT_MAX_CONCURRENT = 4;
+
+    static final int DEFAULT_MAX_CLIENTS = 10000;
+
+    private final LongSupplier clock;
+
+    /**
+     * the token buckets of the clients in least recently used order
+     */
+    private final LinkedHashMap<String, Bucket> buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+        private static final long serialVersionUID = 2915730386541932731L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > maxClients;
+        }
+    };
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong concurrencyLimited = new AtomicLong();
+
+    private double tokensPerNano;
+    private int burst;
+    private int maxClients;
+    private int maxConcurrent;
+    private Semaphore permits;
+    private volatile String clientAddressHeader;
+
+    public SelfRegistrationAdmissionController() {
+        this(System::nanoTime);
+    }
+
+    SelfRegistrationAdmissionController(@NotNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    // ---------- SCR integration ---------------------------------------------
+
+    @Activate
+    protected void activate(Config config) {
+        configure(config.rate(), config.burst(), config.max_concurrent(), config.max_clients());
+        setClientAddressHeader(config.client_address_header());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        synchronized (buckets) {
+            buckets.clear();
+        }
+    }
+
+    void configure(int ratePerMinute, int burst, int maxConcurrent, int maxClients) {
+        synchronized (buckets) {
+            this.tokensPerNano = Math.max(0, ratePerMinute) / (double) TimeUnit.MINUTES.toNanos(1);
+            this.burst = Math.max(1, burst);
+            this.maxClients = Math.max(1, maxClients);
+            buckets.clear();
+        }
+        this.maxConcurrent = Math.max(0, maxConcurrent);
+        this.permits = new Semaphore(this.maxConcurrent);
+    }
+
+    void setClientAddressHeader(@Nullable String clientAddressHeader) {
+        this.clientAddressHeader = clientAddressHeader == null || clientAddressHeader.trim().isEmpty()
+                ? null : clientAddressHeader.trim();
+    }
+
+    /**
+     * Identifies the client of a request by the address the trusted proxy
+     * forwarded, if configured and present, or else by its remote address
+     *
+     * @param request the self-registration request
+     * @return the key to admit the request with
+     */
+    public @NotNull String getClientKey(@NotNull ServletRequest request) {
+        String header = clientAddressHeader;
+        if (header != null && request instanceof HttpServletRequest) {
+            String forwarded = ((HttpServletRequest)request).getHeader(header);
+            if (forwarded != null) {
+                String[] addresses = forwarded.split(",");
+                for (int i = addresses.length - 1; i >= 0; i--) {
+                    String address = addresses[i].trim();
+                    if (!address.isEmpty()) {
+                        return address;
+                    }
+                }
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Admits a self-registration or rejects it with 429 (Too Many Requests)
+     *
+     * @param clientKey identifies the client, e.g. its remote address
+     * @return the permit to close once the self-registration is done
+     * @throws RequestRejectedException if the client is too fast or too many registrations are in progress
+     */
+    public @NotNull Permit admit(@NotNull String clientKey) {
+        if (tokensPerNano > 0 && !takeToken(clientKey)) {
+            rateLimited.incrementAndGet();
+            throw new RequestRejectedException(PasswordHashingExecutor.SC_TOO_MANY_REQUESTS,
+                    "Too many registrations from this client, please try again later");
+        }
+        Semaphore semaphore = maxConcurrent > 0 ? permits : null;
+        if (semaphore != null && !semaphore.tryAcquire()) {
+            concurrencyLimited.incrementAndGet();
+            throw new RequestRejectedException(PasswordHashingExecutor.SC_TOO_MANY_REQUESTS,
+                    "Too many registrations in progress, please try again later");
+        }
+        admitted.incrementAndGet();
+        return new Permit(semaphore);
+    }
+
+    private boolean takeToken(String clientKey) {
+        long now = clock.getAsLong();
+        synchronized (buckets) {
+            Bucket bucket = buckets.get(clientKey);
+            if (bucket == null) {
+                bucket = new Bucket(burst, now);
+                buckets.put(clientKey, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * tokensPerNano);
+                bucket.lastRefill = now;
+            }
+            if (bucket.tokens < 1) {
+                return false;
+            }
+            bucket.tokens -= 1;
+            return true;
+        }
+    }
+
+    // ---------- SelfRegistrationAdmissionControllerMBean --------------------
+
+    @Override
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    @Override
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    @Override
+    public long getConcurrencyLimitedCount() {
+        return concurrencyLimited.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return maxConcurrent > 0 ? maxConcurrent - permits.availablePermits() : 0;
+    }
+
+    @Override
+    public int getTrackedClientCount() {
+        synchronized (buckets) {
+            return buckets.size();
+        }
+    }
+
+    /**
+     * Handed out for an admitted self-registration, to be closed when it is done
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore semaphore;
+        private boolean closed;
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (semaphore != null) {
+                    semaphore.release();
+                }
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(double tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+
+}
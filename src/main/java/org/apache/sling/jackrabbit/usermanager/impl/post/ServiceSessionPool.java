@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a small number of service sessions open so self-registration and
+ * self password changes do not have to log in and out for every request.
+ * <p>
+ * A session is refreshed without keeping changes when it is borrowed and
+ * again when it is returned, so every borrower sees the latest state and
+ * nothing of a previous borrower.
+ * </p>
+ */
+@Component(service = { ServiceSessionPool.class, ServiceSessionPoolMBean.class },
+    property={
+            "service.description=Pool of service sessions",
+            "service.vendor=The Apache Software Foundation",
+            "jmx.objectname=org.apache.sling.jackrabbit.usermanager:type=ServiceSessionPool"
+    })
+@Designate(ocd=ServiceSessionPool.Config.class)
+public class ServiceSessionPool implements ServiceSessionPoolMBean {
+
+    @ObjectClassDefinition(name ="Apache Sling UserManager Service Session Pool",
+            description = "Keeps service sessions open for self-registration and self password changes")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Pool Size",
+                description = "The maximum number of service sessions kept open.")
+        int pool_size() default DEFAULT_POOL_SIZE; //NOSONAR
+
+        @AttributeDefinition(name = "Maximum Wait",
+                description = "The number of milliseconds to wait for a pooled session before a session outside of the pool is used.")
+        long max_wait() default DEFAULT_MAX_WAIT; //NOSONAR
+    }
+
+    static final int DEFAULT_POOL_SIZE = 4;
+
+    static final long DEFAULT_MAX_WAIT = 100;
+
+    /**
+     * default log
+     */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The JCR Repository to log in the service sessions
+     */
+    @Reference
+    private SlingRepository repository;
+
+    /**
+     * To require a service user before becoming active
+     */
+    @Reference
+    private ServiceUserMapped serviceUserMapped;
+
+    private final LinkedBlockingDeque<Session> idle = new LinkedBlockingDeque<>();
+
+    /**
+     * the sessions owned by the pool, borrowed or idle
+     */
+    private final Set<Session> pooled = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    private int poolSize;
+    private long maxWaitMillis;
+    private volatile boolean closed;
+
+    // ---------- SCR integration ---------------------------------------------
+
+    @Activate
+    protected void activate(Config config) {
+        configure(config.pool_size(), config.max_wait());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        closed = true;
+        Session session;
+        while ((session = idle.poll()) != null) {
+            discard(session);
+        }
+    }
+
+    void configure(int poolSize, long maxWaitMillis) {
+        this.poolSize = Math.max(0, poolSize);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        this.closed = false;
+    }
+
+    void setRepository(@NotNull SlingRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Borrows a service session, which must be handed back with {@link #release(Session)}
+     *
+     * @return the refreshed service session
+     * @throws RepositoryException if logging in the service session failed
+     */
+    public @NotNull Session borrow() throws RepositoryException {
+        long start = System.nanoTime();
+        Session session = idle.pollFirst();
+        if (session == null) {
+            if (open.incrementAndGet() <= poolSize) {
+                try {
+                    session = login();
+                } catch (RepositoryException | RuntimeException e) {
+                    open.decrementAndGet();
+                    throw e;
+                }
+                pooled.add(session);
+            } else {
+                open.decrementAndGet();
+                session = poll();
+            }
+        }
+        waitNanos.addAndGet(System.nanoTime() - start);
+        borrows.incrementAndGet();
+
+        if (session == null) {
+            // the pool is exhausted, so do not make the caller wait any longer
+            overflows.incrementAndGet();
+            session = login();
+        } else {
+            try {
+                session.refresh(false);
+            } catch (RepositoryException e) {
+                log.debug("Unable to refresh the pooled session, logging in a new one", e);
+                discard(session);
+                session = login();
+            }
+        }
+        active.incrementAndGet();
+        return session;
+    }
+
+    /**
+     * Hands back a session obtained from {@link #borrow()}
+     *
+     * @param session the borrowed session, may be null
+     */
+    public void release(@Nullable Session session) {
+        if (session == null) {
+            return;
+        }
+        active.decrementAndGet();
+        if (closed || !pooled.contains(session)) {
+            logout(session);
+            return;
+        }
+        try {
+            if (session.isLive()) {
+                // drop whatever the borrower did not save
+                session.refresh(false);
+                idle.offerFirst(session);
+                return;
+            }
+        } catch (RepositoryException e) {
+            log.debug("Unable to refresh the returned session, logging it out", e);
+        }
+        discard(session);
+    }
+
+    private @Nullable Session poll() {
+        try {
+            return idle.pollFirst(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private @NotNull Session login() throws RepositoryException {
+        Session session = repository.loginService(null, null);
+        logins.incrementAndGet();
+        return session;
+    }
+
+    private void discard(@NotNull Session session) {
+        if (pooled.remove(session)) {
+            open.decrementAndGet();
+        }
+        logout(session);
+    }
+
+    private void logout(@NotNull Session session) {
+        try {
+            session.logout();
+        } catch (Exception t) {
+            log.error(String.format("Unable to log out of session: %s", t.getMessage()), t);
+        }
+    }
+
+    // ---------- ServiceSessionPoolMBean -------------------------------------
+
+    @Override
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    @Override
+    public int getOpenCount() {
+        return open.get();
+    }
+
+    @Override
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public double getUtilisation() {
+        return poolSize == 0 ? 0 : (double)Math.min(active.get(), poolSize) / poolSize;
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    @Override
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    @Override
+    public double getAverageWaitTime() {
+        long count = borrows.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.get()) / 1000.0 / count;
+    }
+
+}
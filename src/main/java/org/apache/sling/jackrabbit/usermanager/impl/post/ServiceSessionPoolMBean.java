@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+/**
+ * JMX view of the {@link ServiceSessionPool} statistics
+ */
+public interface ServiceSessionPoolMBean {
+
+    /**
+     * @return the maximum number of pooled sessions
+     */
+    int getPoolSize();
+
+    /**
+     * @return the number of pooled sessions that are currently open
+     */
+    int getOpenCount();
+
+    /**
+     * @return the number of pooled sessions waiting to be borrowed
+     */
+    int getIdleCount();
+
+    /**
+     * @return the number of sessions currently borrowed
+     */
+    int getActiveCount();
+
+    /**
+     * @return the ratio of borrowed sessions to the pool size
+     */
+    double getUtilisation();
+
+    /**
+     * @return the number of times a session was borrowed
+     */
+    long getBorrowCount();
+
+    /**
+     * @return the number of sessions the pool has logged in
+     */
+    long getLoginCount();
+
+    /**
+     * @return the number of times no pooled session became available in time
+     *          and a session outside of the pool was used
+     */
+    long getOverflowCount();
+
+    /**
+     * @return the average time in milliseconds spent waiting to borrow a session
+     */
+    double getAverageWaitTime();
+
+}
@@ -16,8 +16,7 @@
  */
 package org.apache.sling.jackrabbit.usermanager.impl.post;
 
-import java.util.Collection;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -29,25 +28,26 @@ import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.sling.api.SlingHttpServletRequest;
-import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.jackrabbit.usermanager.UpdateGroup;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.PropertyDefinitionCache;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
-import org.apache.sling.jcr.resource.api.JcrResourceConstants;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.PostResponseCreator;
 import org.apache.sling.servlets.post.impl.helper.RequestProperty;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 
 /**
  * <p>
@@ -121,6 +121,19 @@ public class UpdateGroupServlet extends AbstractGroupPostServlet
         super.deactivate();
     }
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    @Override
+    protected void bindPropertyDefinitionCache(PropertyDefinitionCache cache) {
+        super.bindPropertyDefinitionCache(cache);
+    }
+
+    @Override
+    protected void unbindPropertyDefinitionCache(PropertyDefinitionCache cache) { // NOSONAR
+        super.unbindPropertyDefinitionCache(cache);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.usermanager.impl.post.AbstractAuthorizablePostServlet#bindSystemUserManagerPaths(org.apache.sling.jackrabbit.usermanager.impl.resource.SystemUserManagerPaths)
      */
@@ -164,10 +177,16 @@ public class UpdateGroupServlet extends AbstractGroupPostServlet
             throws RepositoryException {
         Resource resource = request.getResource();
         Session session = request.getResourceResolver().adaptTo(Session.class);
+        // reject lost updates before anything gets written
+        checkIfMatch(request);
+        List<String> unchanged = new ArrayList<>();
         updateGroup(session,
                         resource.getName(),
                         request.getRequestParameterMap(), 
-                        changes);
+                        changes,
+                        unchanged,
+                        request.getResourceResolver());
+        reportUnchanged(response, unchanged);
     }
     
     /* (non-Javadoc)
@@ -178,6 +197,22 @@ public class UpdateGroupServlet extends AbstractGroupPostServlet
                                 Map<String, ?> properties, 
                                 List<Modification> changes)
             throws RepositoryException {
+        return updateGroup(jcrSession, name, properties, changes, null, null);
+    }
+
+    /**
+     * Updates the group, collecting the paths of the properties that were not
+     * written since they already held the submitted values. Relative member
+     * paths are resolved with the supplied resolver or, if there is none, with
+     * one that is only opened when needed.
+     */
+    private Group updateGroup(Session jcrSession, 
+                                String name,
+                                Map<String, ?> properties, 
+                                List<Modification> changes,
+                                List<String> unchanged,
+                                @Nullable ResourceResolver resourceResolver)
+            throws RepositoryException {
 
         Group group = null;
         UserManager userManager = AccessControlUtil.getUserManager(jcrSession);
@@ -193,23 +228,19 @@ public class UpdateGroupServlet extends AbstractGroupPostServlet
         String groupPath = systemUserManagerPaths.getGroupPrefix()
             + group.getID();
 
-        Map<String, RequestProperty> reqPropertiesMap = collectContentMap(properties);
-        Collection<RequestProperty> reqPropertyValues = reqPropertiesMap.values();
-        // create a resource resolver to resolve the relative paths used for group membership values
-        try (ResourceResolver resourceResolver = resourceResolverFactory.getResourceResolver(Collections.singletonMap(JcrResourceConstants.AUTHENTICATION_INFO_SESSION, jcrSession))) {
-            // cleanup any old content (@Delete parameters)
-            processDeletes(group, reqPropertyValues, changes);
-
-            // ensure root of new content with the expected primary/mixin types
-            processCreate(jcrSession, group, reqPropertiesMap, changes);
-
-            // write content from form
-            writeContent(jcrSession, group, reqPropertyValues, changes);
+        PropertyPlan plan = getPropertyPlan(properties.keySet());
+        Map<String, RequestProperty> reqPropertiesMap = collectContentMap(plan, properties);
+        // validated before anything gets written
+        UpdatePlan updatePlan = UpdatePlan.plan(reqPropertiesMap.values(), true);
+        try (MemberResolver members = new MemberResolver(jcrSession, userManager,
+                resourceResolver, resourceResolverFactory, groupPath)) {
+            // cleanup any old content (@Delete parameters), ensure the nodes with the expected
+            // primary/mixin types and write content from form in a single pass
+            processUpdate(jcrSession, group, updatePlan, reqPropertiesMap, changes, unchanged);
 
             // update the group memberships
-            Resource baseResource = resourceResolver.getResource(groupPath);
-            updateGroupMembership(baseResource, properties, group, changes);
-        } catch (RepositoryException | LoginException re) {
+            updateGroupMembership(members, properties, group, changes);
+        } catch (RepositoryException re) {
             throw new RepositoryException("Failed to update group.", re);
         }
         return group;
@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.AccessDeniedException;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.servlets.post.impl.helper.RequestProperty;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The writes of an update request in the order they are applied: first
+ * the deleted properties, then the primary types and mixins and then the
+ * written properties, each phase with the nodes top down. This is the
+ * order of the separate delete, create and write passes, so no property
+ * is written before a node type change anywhere in the request, and one
+ * pass over the steps applies the whole request.
+ * <p>
+ * The plan is built without accessing the repository, so a request that
+ * tries to change the primary type of the authorizable node is rejected
+ * before anything is written.
+ * </p>
+ */
+public final class UpdatePlan {
+
+    /**
+     * What a step does, in the order the steps of a node are applied
+     */
+    enum Action {
+        /** remove the property (@Delete suffix) */
+        DELETE(0),
+        /** set the primary type of the node */
+        PRIMARY_TYPE(1),
+        /** add the mixins to the node */
+        MIXINS(1),
+        /** write the values of the property */
+        WRITE(2);
+
+        private final int phase;
+
+        Action(int phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * @return the pass of the request the action belongs to, all the steps
+         *          of a pass are applied before the steps of the next one
+         */
+        int getPhase() {
+            return phase;
+        }
+    }
+
+    /**
+     * One property of the request and what to do with it
+     */
+    static final class Step {
+        private final Action action;
+        private final RequestProperty property;
+        private final String nodePath;
+        private final boolean absent;
+
+        private Step(Action action, RequestProperty property, boolean absent) {
+            this.action = action;
+            this.property = property;
+            String parentPath = property.getParentPath();
+            this.nodePath = parentPath == null ? "" : trimSlashes(parentPath);
+            this.absent = absent;
+        }
+
+        Action getAction() {
+            return action;
+        }
+
+        RequestProperty getProperty() {
+            return property;
+        }
+
+        /**
+         * @return the path of the node holding the property, relative to the
+         *          authorizable node and without leading or trailing slashes
+         */
+        String getNodePath() {
+            return nodePath;
+        }
+
+        /**
+         * @return true if an earlier step removes the property, so it is known
+         *          to not exist when this step is applied
+         */
+        boolean isAbsent() {
+            return absent;
+        }
+    }
+
+    /**
+     * Orders the steps by phase, then by node, ancestors first, then by action
+     * and property name
+     */
+    private static final Comparator<Step> STEP_ORDER = Comparator.<Step>comparingInt(step -> step.getAction().getPhase())
+            .thenComparing(Step::getNodePath)
+            .thenComparing(Step::getAction)
+            .thenComparing(step -> step.getProperty().getName());
+
+    private final List<Step> steps;
+    private final int nodeCount;
+    private final int[] actionCounts;
+
+    private UpdatePlan(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+        this.actionCounts = new int[Action.values().length];
+        Set<String> nodePaths = new HashSet<>();
+        for (Step step : steps) {
+            actionCounts[step.getAction().ordinal()]++;
+            nodePaths.add(step.getNodePath());
+        }
+        this.nodeCount = nodePaths.size();
+    }
+
+    /**
+     * Plans the writes for the collected request properties
+     *
+     * @param reqProperties the request properties collected from the request
+     * @param group true if the properties are written to a group
+     * @return the plan
+     * @throws AccessDeniedException if the request tries to change the primary type of the authorizable node
+     */
+    public static @NotNull UpdatePlan plan(@NotNull Collection<RequestProperty> reqProperties, boolean group)
+            throws AccessDeniedException {
+        List<Step> steps = new ArrayList<>();
+        Set<String> deleted = new HashSet<>();
+        for (RequestProperty prop : reqProperties) {
+            if (prop.isDelete()) {
+                steps.add(new Step(Action.DELETE, prop, false));
+                deleted.add(prop.getPath());
+            }
+        }
+        for (RequestProperty prop : reqProperties) {
+            if (isStructural(prop)) {
+                Step step = new Step(JcrConstants.JCR_PRIMARYTYPE.equals(prop.getName()) ? Action.PRIMARY_TYPE : Action.MIXINS,
+                        prop, false);
+                if (step.getAction() == Action.PRIMARY_TYPE && step.getNodePath().isEmpty()) {
+                    // don't allow changing the primaryType of the user home root
+                    throw new AccessDeniedException("Access denied.");
+                }
+                steps.add(step);
+            } else if (isWritable(prop, group)) {
+                steps.add(new Step(Action.WRITE, prop, deleted.contains(prop.getPath())));
+            }
+        }
+        steps.sort(STEP_ORDER);
+        return new UpdatePlan(steps);
+    }
+
+    /**
+     * Checks if the property sets the primary type or the mixins of a node
+     * below the authorizable node
+     *
+     * @param prop the request property
+     * @return true if the property is applied as a node type change
+     */
+    static boolean isStructural(@NotNull RequestProperty prop) {
+        String propName = prop.getName();
+        if (JcrConstants.JCR_PRIMARYTYPE.equals(propName) || JcrConstants.JCR_MIXINTYPES.equals(propName)) {
+            String parentPath = prop.getParentPath();
+            if (parentPath == null && JcrConstants.JCR_PRIMARYTYPE.equals(propName)) {
+                // don't allow changing the primaryType of the user/group root node
+                return false;
+            }
+            return parentPath == null || parentPath.startsWith("/");
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the values of the property are written as they are
+     *
+     * @param prop the request property
+     * @param group true if the property is written to a group
+     * @return true if the property has values that are not handled elsewhere
+     */
+    static boolean isWritable(@NotNull RequestProperty prop, boolean group) {
+        if (!prop.hasValues()) {
+            return false;
+        }
+        // remove artificial "/" prepended to the prop path
+        String relativePath = prop.getPath().substring(1);
+
+        // skip jcr special properties
+        String name = prop.getName();
+        boolean isSpecialProp = name.equals(JcrConstants.JCR_PRIMARYTYPE)
+            || name.equals(JcrConstants.JCR_MIXINTYPES);
+        if (group) {
+            if (relativePath.equals("groupId")) {
+                // skip these
+                isSpecialProp = true;
+            }
+        } else {
+            if (relativePath.equals("userId")
+                || relativePath.equals("pwd")
+                || relativePath.equals("pwdConfirm")) {
+                // skip these
+                isSpecialProp = true;
+            }
+        }
+        // don't handle files for user properties for now.
+        return !isSpecialProp && !prop.isFileUpload();
+    }
+
+    /**
+     * Removes the leading and trailing slashes of the path
+     */
+    static String trimSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    /**
+     * @return the steps in the order they are applied
+     */
+    List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of distinct nodes the steps apply to
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of properties that are removed
+     */
+    public int getDeleteCount() {
+        return actionCounts[Action.DELETE.ordinal()];
+    }
+
+    /**
+     * @return the number of primary type and mixin changes
+     */
+    public int getNodeTypeCount() {
+        return actionCounts[Action.PRIMARY_TYPE.ordinal()] + actionCounts[Action.MIXINS.ordinal()];
+    }
+
+    /**
+     * @return the number of properties that are written
+     */
+    public int getWriteCount() {
+        return actionCounts[Action.WRITE.ordinal()];
+    }
+
+}
@@ -16,7 +16,7 @@
  */
 package org.apache.sling.jackrabbit.usermanager.impl.post;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -31,6 +31,7 @@ import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.jackrabbit.usermanager.UpdateUser;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.PropertyDefinitionCache;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.servlets.post.Modification;
@@ -43,6 +44,7 @@ import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 
 /**
  * <p>
@@ -113,6 +115,19 @@ public class UpdateUserServlet extends AbstractAuthorizablePostServlet
         super.deactivate();
     }
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    @Override
+    protected void bindPropertyDefinitionCache(PropertyDefinitionCache cache) {
+        super.bindPropertyDefinitionCache(cache);
+    }
+
+    @Override
+    protected void unbindPropertyDefinitionCache(PropertyDefinitionCache cache) { // NOSONAR
+        super.unbindPropertyDefinitionCache(cache);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.sling.jackrabbit.usermanager.impl.post.AbstractAuthorizablePostServlet#bindSystemUserManagerPaths(org.apache.sling.jackrabbit.usermanager.impl.resource.SystemUserManagerPaths)
      */
@@ -156,10 +171,15 @@ public class UpdateUserServlet extends AbstractAuthorizablePostServlet
             throws RepositoryException {
         Resource resource = request.getResource();
         Session session = request.getResourceResolver().adaptTo(Session.class);
+        // reject lost updates before anything gets written
+        checkIfMatch(request);
+        List<String> unchanged = new ArrayList<>();
         updateUser(session,
                 resource.getName(),
                 request.getRequestParameterMap(),
-                changes);
+                changes,
+                unchanged);
+        reportUnchanged(response, unchanged);
     }
 
     /* (non-Javadoc)
@@ -168,6 +188,17 @@ public class UpdateUserServlet extends AbstractAuthorizablePostServlet
     public User updateUser(Session jcrSession, String name,
             Map<String, ?> properties, List<Modification> changes)
             throws RepositoryException {
+        return updateUser(jcrSession, name, properties, changes, null);
+    }
+
+    /**
+     * Updates the user, collecting the paths of the properties that were not
+     * written since they already held the submitted values
+     */
+    private User updateUser(Session jcrSession, String name,
+            Map<String, ?> properties, List<Modification> changes,
+            List<String> unchanged)
+            throws RepositoryException {
 
         User user;
         UserManager userManager = AccessControlUtil.getUserManager(jcrSession);
@@ -179,17 +210,14 @@ public class UpdateUserServlet extends AbstractAuthorizablePostServlet
                 "User to update could not be determined");
         }
 
-        Map<String, RequestProperty> reqPropertiesMap = collectContentMap(properties);
-        Collection<RequestProperty> reqPropertyValues = reqPropertiesMap.values();
+        PropertyPlan plan = getPropertyPlan(properties.keySet());
+        Map<String, RequestProperty> reqPropertiesMap = collectContentMap(plan, properties);
+        // validated before anything gets written
+        UpdatePlan updatePlan = UpdatePlan.plan(reqPropertiesMap.values(), false);
         try {
-            // cleanup any old content (@Delete parameters)
-            processDeletes(user, reqPropertyValues, changes);
-
-            // ensure root of new content with the expected primary/mixin types
-            processCreate(jcrSession, user, reqPropertiesMap, changes);
-
-            // write content from form
-            writeContent(jcrSession, user, reqPropertyValues, changes);
+            // cleanup any old content (@Delete parameters), ensure the nodes with the expected
+            // primary/mixin types and write content from form in a single pass
+            processUpdate(jcrSession, user, updatePlan, reqPropertiesMap, changes, unchanged);
 
             //SLING-2072 set the user as enabled or disabled if the request
             // has supplied the relevant properties
@@ -16,9 +16,25 @@
  */
 package org.apache.sling.jackrabbit.usermanager.impl.resource;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
 
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
@@ -29,6 +45,8 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Resource implementation for Authorizable
@@ -39,10 +57,27 @@ import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
     @Adapter(condition="If the resource is an AuthorizableResource and represents a JCR Group", value = Group.class)
 })
 public class AuthorizableResource extends BaseResource {
+    private static final String PASSWORD_PROPERTY = "rep:password";
+    private static final String TOKENS_NODE = ".tokens";
+    private static final String PASSWORD_HISTORY_NODE = "rep:pwd";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
     protected final Authorizable authorizable;
     private final String resourceType;
     protected final SystemUserManagerPaths systemUserManagerPaths;
 
+    /**
+     * the value map handed out for every adaptTo call, so whatever it has
+     * read already is not read again
+     */
+    private ValueMap valueMap;
+
+    /**
+     * the lazily calculated version token
+     */
+    private String versionToken;
+
     public AuthorizableResource(Authorizable authorizable,
             ResourceResolver resourceResolver, String path,
             SystemUserManagerPaths systemUserManagerPaths) {
@@ -81,7 +116,9 @@ public class AuthorizableResource extends BaseResource {
     @Override
     public <T> T adaptTo(Class<T> type) {
         if (type == Map.class || type == ValueMap.class) {
-            ValueMap valueMap = new AuthorizableValueMap(authorizable, systemUserManagerPaths);
+            if (valueMap == null) {
+                valueMap = createValueMap();
+            }
             return type.cast(valueMap);
         } else if (type == Authorizable.class
             || (type == User.class && !authorizable.isGroup())
@@ -92,6 +129,129 @@ public class AuthorizableResource extends BaseResource {
         return super.adaptTo(type);
     }
 
+    /**
+     * Create the value map for the properties of this resource
+     *
+     * @return the value map
+     */
+    protected ValueMap createValueMap() {
+        return new AuthorizableValueMap(authorizable, systemUserManagerPaths);
+    }
+
+    /**
+     * Calculates a token that changes whenever the rendered state of the
+     * authorizable changes. The token is a digest of the properties of the
+     * rendered node and, for the authorizable itself, of the declared and
+     * inherited memberships and members as the session sees them, which
+     * also covers the members kept in rep:membersList child nodes. Other
+     * child nodes are not included, so the login tokens and the password
+     * history do not change the token.
+     *
+     * @return the version token or null if it could not be calculated
+     */
+    public String getVersionToken() {
+        if (versionToken == null) {
+            try {
+                versionToken = calculateVersionToken();
+            } catch (RepositoryException e) {
+                log.debug("Could not calculate the version token of {}", authorizable, e);
+            }
+        }
+        return versionToken;
+    }
+
+    /**
+     * The path of the rendered node relative to the authorizable node
+     *
+     * @return the relative path or null for the authorizable node itself
+     */
+    protected String getRelativeNodePath() {
+        return null;
+    }
+
+    private String calculateVersionToken() throws RepositoryException {
+        String relPath = getRelativeNodePath();
+        if (relPath != null && (relPath.startsWith(TOKENS_NODE) || relPath.startsWith(PASSWORD_HISTORY_NODE))) {
+            // not rendered state of the authorizable
+            return null;
+        }
+        Session session = getResourceResolver().adaptTo(Session.class);
+        String nodePath = relPath == null ? authorizable.getPath() : authorizable.getPath() + "/" + relPath;
+        if (session == null || !session.nodeExists(nodePath)) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RepositoryException(e);
+        }
+        updateDigest(digest, session.getNode(nodePath));
+
+        if (relPath == null) {
+            // the memberships are rendered along with the properties
+            updateDigest(digest, "declaredMemberOf", sortedIds(authorizable.declaredMemberOf()));
+            updateDigest(digest, "memberOf", sortedIds(authorizable.memberOf()));
+            if (authorizable.isGroup()) {
+                Group group = (Group) authorizable;
+                updateDigest(digest, "declaredMembers", sortedIds(group.getDeclaredMembers()));
+                updateDigest(digest, "members", sortedIds(group.getMembers()));
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 18));
+    }
+
+    private static String[] sortedIds(Iterator<? extends Authorizable> authorizables) throws RepositoryException {
+        List<String> ids = new ArrayList<>();
+        while (authorizables.hasNext()) {
+            ids.add(authorizables.next().getID());
+        }
+        Collections.sort(ids);
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    private static void updateDigest(MessageDigest digest, Node node) throws RepositoryException {
+        // sort by name so the token does not depend on the iteration order
+        Map<String, Property> properties = new TreeMap<>();
+        for (PropertyIterator it = node.getProperties(); it.hasNext();) {
+            Property property = it.nextProperty();
+            if (!PASSWORD_PROPERTY.equals(property.getName())) {
+                properties.put(property.getName(), property);
+            }
+        }
+        for (Property property : properties.values()) {
+            String[] values;
+            if (property.isMultiple()) {
+                Value[] vals = property.getValues();
+                values = new String[vals.length];
+                for (int i = 0; i < vals.length; i++) {
+                    values[i] = toDigestString(vals[i]);
+                }
+            } else {
+                values = new String[] {toDigestString(property.getValue())};
+            }
+            updateDigest(digest, property.getName(), values);
+        }
+    }
+
+    private static String toDigestString(Value value) throws RepositoryException {
+        if (value.getType() == PropertyType.BINARY) {
+            // the size is enough to notice a replaced binary without reading it
+            return "binary:" + value.getBinary().getSize();
+        }
+        return value.getString();
+    }
+
+    private static void updateDigest(MessageDigest digest, String name, String[] values) {
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        for (String value : values) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+        }
+        digest.update((byte)1);
+    }
+
     public String toString() {
         String id = null;
         if (authorizable != null) {
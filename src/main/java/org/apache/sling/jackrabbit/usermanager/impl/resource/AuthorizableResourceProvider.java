@@ -21,7 +21,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -36,6 +38,7 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.SyntheticResource;
 import org.apache.sling.commons.osgi.OsgiUtil;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.UnknownAuthorizableCache;
 import org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.spi.resource.provider.ResolveContext;
@@ -45,6 +48,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
@@ -87,6 +94,14 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
     private String systemUserManagerGroupPath;
     private String systemUserManagerGroupPrefix;
 
+    /**
+     * The number of user and group paths to keep shared instances of
+     */
+    private static final int MAX_SHARED_PATHS = 10000;
+
+    private final SharedPaths sharedUserPaths = new SharedPaths(MAX_SHARED_PATHS);
+    private final SharedPaths sharedGroupPaths = new SharedPaths(MAX_SHARED_PATHS);
+
     public static final String DEFAULT_SYSTEM_USER_MANAGER_PATH = "/system/userManager"; //NOSONAR
 
     /**
@@ -125,6 +140,14 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
 
     private boolean resourcesForNestedProperties = true;
 
+    /**
+     * Optional cache of the principal ids that recently did not resolve
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile UnknownAuthorizableCache unknownAuthorizableCache;
+
     @Activate
     protected void activate(final Config config) {
         systemUserManagerPath = OsgiUtil.toString(config.provider_root(), DEFAULT_SYSTEM_USER_MANAGER_PATH);
@@ -133,6 +156,8 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
         systemUserManagerGroupPath = String.format("%s/group", systemUserManagerPath);
         systemUserManagerGroupPrefix = String.format("%s/", systemUserManagerGroupPath);
         resourcesForNestedProperties = config.resources_for_nested_properties();
+        sharedUserPaths.clear();
+        sharedGroupPaths.clear();
     }
     
     /* (non-Javadoc)
@@ -175,6 +200,60 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
         return systemUserManagerGroupPrefix;
     }
 
+    /* (non-Javadoc)
+     * @see org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths#getUserPath(java.lang.String)
+     */
+    @Override
+    public String getUserPath(String userId) {
+        return sharedUserPaths.get(systemUserManagerUserPrefix, userId);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.sling.jackrabbit.usermanager.resource.SystemUserManagerPaths#getGroupPath(java.lang.String)
+     */
+    @Override
+    public String getGroupPath(String groupId) {
+        return sharedGroupPaths.get(systemUserManagerGroupPrefix, groupId);
+    }
+
+    /**
+     * Returns the same path instance for repeated calls with the same id, so
+     * reading the members of large groups does not build the strings again.
+     * Lookups do not lock. Once the limit is reached no new paths are
+     * remembered, so the paths in use are not evicted by the members of
+     * a group larger than the limit.
+     */
+    static final class SharedPaths {
+        private final int maxEntries;
+        private final Map<String, String> entries = new ConcurrentHashMap<>();
+
+        SharedPaths(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        String get(String prefix, String id) {
+            String path = entries.get(id);
+            if (path == null) {
+                path = prefix + id;
+                if (entries.size() < maxEntries) {
+                    String shared = entries.putIfAbsent(id, path);
+                    if (shared != null) {
+                        path = shared;
+                    }
+                }
+            }
+            return path;
+        }
+
+        void clear() {
+            entries.clear();
+        }
+
+        int size() {
+            return entries.size();
+        }
+    }
+
     @Override
     public Resource getResource(ResolveContext<Object> ctx,
             String path,
@@ -246,7 +325,8 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
                 relPath = suffix.substring(firstSlash + 1);
             }
             Session session = ctx.getResourceResolver().adaptTo(Session.class);
-            if (session != null) {
+            UnknownAuthorizableCache unknownCache = this.unknownAuthorizableCache;
+            if (session != null && (unknownCache == null || !unknownCache.isUnknown(session.getUserID(), pid))) {
                 try {
                     UserManager userManager = AccessControlUtil.getUserManager(session);
                     if (userManager != null) {
@@ -261,6 +341,9 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
                                 Principal principal = principalManager.getPrincipal(pid);
                                 if (principal != null) {
                                     result = principalWorker.doWork(principal);
+                                } else if (unknownCache != null) {
+                                    // neither an authorizable nor a principal
+                                    unknownCache.markUnknown(session.getUserID(), pid);
                                 }
                             }
                         }
@@ -427,11 +510,9 @@ public class AuthorizableResourceProvider extends ResourceProvider<Object> imple
                 if (authorizable != null) {
                     String path;
                     if (authorizable.isGroup()) {
-                        path = systemUserManagerGroupPrefix
-                            + principalName;
+                        path = getGroupPath(principalName);
                     } else {
-                        path = systemUserManagerUserPrefix
-                            + principalName;
+                        path = getUserPath(principalName);
                     }
                     next = createNext(child, resourceResolver, authorizable, path);
                 }
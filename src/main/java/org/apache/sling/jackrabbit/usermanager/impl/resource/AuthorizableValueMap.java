@@ -109,9 +109,9 @@ public class AuthorizableValueMap extends BaseAuthorizableValueMap {
                 it.hasNext();) {
             Authorizable auth = it.next();
             if (auth.isGroup()) {
-                results.add(systemUserManagerPaths.getGroupPrefix() + auth.getID());
+                results.add(systemUserManagerPaths.getGroupPath(auth.getID()));
             } else {
-                results.add(systemUserManagerPaths.getUserPrefix() + auth.getID());
+                results.add(systemUserManagerPaths.getUserPath(auth.getID()));
             }
         }
         return results.toArray(new String[results.size()]);
@@ -122,7 +122,7 @@ public class AuthorizableValueMap extends BaseAuthorizableValueMap {
         for (Iterator<Group> it = includeAll ? authorizable.memberOf() : authorizable.declaredMemberOf();
                 it.hasNext();) {
             Group group = it.next();
-            results.add(systemUserManagerPaths.getGroupPrefix() + group.getID());
+            results.add(systemUserManagerPaths.getGroupPath(group.getID()));
         }
         return results.toArray(new String[results.size()]);
     }
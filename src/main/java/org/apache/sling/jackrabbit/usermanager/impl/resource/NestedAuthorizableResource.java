@@ -52,18 +52,18 @@ public class NestedAuthorizableResource extends AuthorizableResource {
         return String.format("%s/properties", super.toResourceType(authorizable));
     }
 
+    @Override
+    protected String getRelativeNodePath() {
+        return relPropPath;
+    }
+
     /*
      * (non-Javadoc)
-     * @see org.apache.sling.api.adapter.Adaptable#adaptTo(java.lang.Class)
+     * @see org.apache.sling.jackrabbit.usermanager.impl.resource.AuthorizableResource#createValueMap()
      */
     @Override
-    public <T> T adaptTo(Class<T> type) {
-        if (type == Map.class || type == ValueMap.class) {
-            ValueMap valueMap = new NestedAuthorizableValueMap(authorizable, systemUserManagerPaths, relPropPath);
-            return type.cast(valueMap);
-        }
-
-        return super.adaptTo(type);
+    protected ValueMap createValueMap() {
+        return new NestedAuthorizableValueMap(authorizable, systemUserManagerPaths, relPropPath);
     }
 
 }
@@ -47,4 +47,28 @@ public interface SystemUserManagerPaths {
      */
     String getGroupPrefix();
 
+    /**
+     * The path of the resource for the user with the given id.
+     * Implementations may return a shared instance for repeated calls.
+     *
+     * @param userId the id of the user
+     * @return the resource path of the user
+     * @since 1.1.0
+     */
+    default String getUserPath(String userId) {
+        return getUserPrefix() + userId;
+    }
+
+    /**
+     * The path of the resource for the group with the given id.
+     * Implementations may return a shared instance for repeated calls.
+     *
+     * @param groupId the id of the group
+     * @return the resource path of the group
+     * @since 1.1.0
+     */
+    default String getGroupPath(String groupId) {
+        return getGroupPrefix() + groupId;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange.Type;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the AuthorizableAdapterFactory remembers the current user per resolver
+ */
+public class AuthorizableAdapterFactoryTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AuthorizableAdapterFactory factory = new AuthorizableAdapterFactory();
+    private User user;
+    private JackrabbitSession session;
+
+    @Before
+    public void setup() {
+        user = proxy(User.class, (proxy, method, args) -> {
+            throw new UnsupportedOperationException(method.getName());
+        });
+        UserManager userManager = proxy(UserManager.class, (proxy, method, args) -> {
+            if ("getAuthorizable".equals(method.getName())) {
+                lookups.incrementAndGet();
+                return user;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        session = proxy(JackrabbitSession.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUserManager":
+                    return userManager;
+                case "getUserID":
+                    return "alice";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private ResourceResolver newResolver() {
+        Map<String, Object> propertyMap = new HashMap<>();
+        return proxy(ResourceResolver.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "adaptTo":
+                    return session;
+                case "getPropertyMap":
+                    return propertyMap;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void testRememberedPerResolver() {
+        ResourceResolver resolver = newResolver();
+        assertSame(user, factory.getAdapter(resolver, User.class));
+        assertSame(user, factory.getAdapter(resolver, Authorizable.class));
+        assertNull(factory.getAdapter(resolver, Group.class));
+        assertEquals(1, lookups.get());
+
+        assertSame(user, factory.getAdapter(newResolver(), User.class));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testDroppedOnUserChange() {
+        ResourceResolver resolver = newResolver();
+        factory.getAdapter(resolver, User.class);
+
+        // group changes do not affect the user object
+        factory.onChange(Collections.singletonList(
+                new AuthorizableChange(Type.CHANGED, "/home/groups/g/group1", "group1", true)));
+        factory.getAdapter(resolver, User.class);
+        assertEquals(1, lookups.get());
+
+        factory.onChange(Collections.singletonList(
+                new AuthorizableChange(Type.CHANGED, "/home/users/a/alice", "alice", false)));
+        factory.getAdapter(resolver, User.class);
+        assertEquals(2, lookups.get());
+
+        factory.reset();
+        factory.getAdapter(resolver, User.class);
+        assertEquals(3, lookups.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+}
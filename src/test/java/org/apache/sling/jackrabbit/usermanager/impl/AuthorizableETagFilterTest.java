@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.jackrabbit.usermanager.impl.post.AbstractAuthorizablePostServlet;
+import org.apache.sling.jackrabbit.usermanager.impl.post.RequestRejectedException;
+import org.apache.sling.jackrabbit.usermanager.impl.resource.AuthorizableResource;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.junit.Test;
+
+/**
+ * Coverage of the ETag header matching and of the conditional requests
+ */
+public class AuthorizableETagFilterTest {
+
+    private final AtomicInteger tokenCalculations = new AtomicInteger();
+    private final AtomicInteger chainCalls = new AtomicInteger();
+    private final Map<String, String> responseHeaders = new HashMap<>();
+    private int status = HttpServletResponse.SC_OK;
+
+    private final FilterChain chain = (request, response) -> chainCalls.incrementAndGet();
+
+    private final AuthorizableResource resource = new AuthorizableResource(
+            proxy(Authorizable.class, (proxy, method, args) -> {
+                if ("isGroup".equals(method.getName())) {
+                    return false;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }), null, "/system/userManager/user/alice", null) {
+        @Override
+        public String getVersionToken() {
+            tokenCalculations.incrementAndGet();
+            return "v1";
+        }
+    };
+
+    private SlingHttpServletRequest request(String method, String headerName, String headerValue) {
+        return request(method, null, headerName, headerValue);
+    }
+
+    private SlingHttpServletRequest request(String method, String selectors, String headerName, String headerValue) {
+        RequestPathInfo pathInfo = proxy(RequestPathInfo.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "getExtension":
+                    return "json";
+                case "getSelectorString":
+                    return selectors;
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+        return proxy(SlingHttpServletRequest.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "getMethod":
+                    return method;
+                case "getResource":
+                    return resource;
+                case "getRequestPathInfo":
+                    return pathInfo;
+                case "getHeader":
+                    return args[0].equals(headerName) ? headerValue : null;
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    private SlingHttpServletResponse response() {
+        return proxy(SlingHttpServletResponse.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "setHeader":
+                    responseHeaders.put((String)args[0], (String)args[1]);
+                    return null;
+                case "setStatus":
+                    status = (Integer)args[0];
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    @Test
+    public void testToETag() {
+        assertEquals("\"abc\"", AuthorizableETagFilter.toETag("abc"));
+        assertNull(AuthorizableETagFilter.toETag(null));
+    }
+
+    @Test
+    public void testMatches() {
+        String etag = AuthorizableETagFilter.toETag("abc");
+        assertFalse(AuthorizableETagFilter.matches(null, etag, true));
+        assertTrue(AuthorizableETagFilter.matches("\"abc\"", etag, true));
+        assertTrue(AuthorizableETagFilter.matches("*", etag, true));
+        assertTrue(AuthorizableETagFilter.matches("\"xyz\", W/\"abc\"", etag, true));
+        assertFalse(AuthorizableETagFilter.matches("\"xyz\"", etag, true));
+        assertFalse(AuthorizableETagFilter.matches("abc", etag, true));
+    }
+
+    @Test
+    public void testMatchesStrong() {
+        String etag = AuthorizableETagFilter.toETag("abc");
+        assertTrue(AuthorizableETagFilter.matches("\"abc\"", etag, false));
+        assertTrue(AuthorizableETagFilter.matches("*", etag, false));
+        assertTrue(AuthorizableETagFilter.matches("W/\"xyz\", \"abc\"", etag, false));
+        // weak tags never match strongly
+        assertFalse(AuthorizableETagFilter.matches("W/\"abc\"", etag, false));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        new AuthorizableETagFilter().doFilter(request("GET", AuthorizableETagFilter.HEADER_IF_NONE_MATCH, "\"v1\""),
+                response(), chain);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+        assertEquals("\"v1\"", responseHeaders.get(AuthorizableETagFilter.HEADER_ETAG));
+        assertEquals(0, chainCalls.get());
+    }
+
+    @Test
+    public void testModified() throws Exception {
+        new AuthorizableETagFilter().doFilter(request("GET", AuthorizableETagFilter.HEADER_IF_NONE_MATCH, "\"v0\""),
+                response(), chain);
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals("\"v1\"", responseHeaders.get(AuthorizableETagFilter.HEADER_ETAG));
+        assertEquals(1, chainCalls.get());
+    }
+
+    @Test
+    public void testUnconditionalGet() throws Exception {
+        new AuthorizableETagFilter().doFilter(request("GET", null, null), response(), chain);
+        // plain reads learn the ETag as well
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals("\"v1\"", responseHeaders.get(AuthorizableETagFilter.HEADER_ETAG));
+        assertEquals(1, chainCalls.get());
+
+        responseHeaders.clear();
+        new AuthorizableETagFilter().doFilter(request("HEAD", null, null), response(), chain);
+        assertEquals("\"v1\"", responseHeaders.get(AuthorizableETagFilter.HEADER_ETAG));
+        assertEquals(2, chainCalls.get());
+    }
+
+    @Test
+    public void testSelectorsIgnored() throws Exception {
+        new AuthorizableETagFilter().doFilter(request("GET", "privileges-info",
+                AuthorizableETagFilter.HEADER_IF_NONE_MATCH, "\"v1\""), response(), chain);
+        assertEquals(0, tokenCalculations.get());
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertNull(responseHeaders.get(AuthorizableETagFilter.HEADER_ETAG));
+        assertEquals(1, chainCalls.get());
+    }
+
+    @Test
+    public void testIfMatch() {
+        TestServlet servlet = new TestServlet();
+        servlet.check(request("POST", null, null));
+        assertEquals(0, tokenCalculations.get());
+        servlet.check(request("POST", AuthorizableETagFilter.HEADER_IF_MATCH, "\"v1\""));
+
+        try {
+            servlet.check(request("POST", AuthorizableETagFilter.HEADER_IF_MATCH, "\"v0\""));
+            fail("Expected the stale If-Match to be rejected");
+        } catch (RequestRejectedException e) {
+            assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, e.getStatus());
+        }
+        try {
+            servlet.check(request("POST", AuthorizableETagFilter.HEADER_IF_MATCH, "W/\"v1\""));
+            fail("Expected the weak If-Match to be rejected");
+        } catch (RequestRejectedException e) {
+            assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, e.getStatus());
+        }
+    }
+
+    /**
+     * Gives access to the If-Match check
+     */
+    private static final class TestServlet extends AbstractAuthorizablePostServlet {
+        private static final long serialVersionUID = 1L;
+
+        private void check(SlingHttpServletRequest request) {
+            checkIfMatch(request);
+        }
+
+        @Override
+        protected void handleOperation(SlingHttpServletRequest request, PostResponse response,
+                List<Modification> changes) {
+            // not used
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Workspace;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange.Type;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChangeDispatcher.Located;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Coverage of the coalescing done by the AuthorizableChangeDispatcher
+ */
+public class AuthorizableChangeDispatcherTest {
+
+    private final Map<String, Located> authorizables = new HashMap<>();
+    private final List<List<AuthorizableChange>> batches = new ArrayList<>();
+    private int resets;
+    private AuthorizableChangeDispatcher dispatcher;
+
+    @Before
+    public void setup() {
+        dispatcher = new AuthorizableChangeDispatcher();
+        dispatcher.setRootPaths("/home/users", "/home/groups");
+        dispatcher.configure(0, 2);
+        dispatcher.bindAuthorizableChangeListener(new AuthorizableChangeListener() {
+            @Override
+            public void onChange(@NotNull List<AuthorizableChange> changes) {
+                batches.add(changes);
+            }
+
+            @Override
+            public void reset() {
+                resets++;
+            }
+        });
+        authorizables.put("/home/users/a/alice", new Located("/home/users/a/alice", "alice", false));
+        authorizables.put("/home/groups/g/group1", new Located("/home/groups/g/group1", "group1", true));
+    }
+
+    private void flush() throws RepositoryException {
+        dispatcher.resolvePending(authorizables::get);
+        dispatcher.deliver();
+    }
+
+    @Test
+    public void testCoalesceChanges() throws RepositoryException {
+        dispatcher.enqueue("/home/users/a/alice/profile/name", Event.PROPERTY_CHANGED);
+        dispatcher.enqueue("/home/users/a/alice/profile/age", Event.PROPERTY_ADDED);
+        dispatcher.enqueue("/home/users/a/alice/prefs", Event.NODE_ADDED);
+        assertEquals(2, dispatcher.getPendingCount());
+        flush();
+
+        assertEquals(1, batches.size());
+        List<AuthorizableChange> changes = batches.get(0);
+        assertEquals(1, changes.size());
+        AuthorizableChange change = changes.get(0);
+        assertEquals(Type.CHANGED, change.getType());
+        assertEquals("alice", change.getId());
+        assertEquals("/home/users/a/alice", change.getPath());
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    @Test
+    public void testMembershipChanged() throws RepositoryException {
+        dispatcher.enqueue("/home/groups/g/group1/rep:members", Event.PROPERTY_CHANGED);
+        dispatcher.enqueue("/home/groups/g/group1/rep:membersList/0/rep:members", Event.PROPERTY_ADDED);
+        flush();
+
+        List<AuthorizableChange> changes = batches.get(0);
+        assertEquals(1, changes.size());
+        assertEquals(Type.MEMBERSHIP_CHANGED, changes.get(0).getType());
+        assertEquals("group1", changes.get(0).getId());
+        assertTrue(changes.get(0).isGroup());
+    }
+
+    @Test
+    public void testRemoved() throws RepositoryException {
+        // learn the id while it still exists
+        dispatcher.enqueue("/home/users/a/alice/profile/name", Event.PROPERTY_CHANGED);
+        flush();
+        authorizables.remove("/home/users/a/alice");
+
+        dispatcher.enqueue("/home/users/a/alice", Event.NODE_REMOVED);
+        dispatcher.enqueue("/home/users/b", Event.NODE_REMOVED);
+        flush();
+
+        List<AuthorizableChange> changes = batches.get(1);
+        assertEquals(2, changes.size());
+        assertEquals(Type.REMOVED, changes.get(0).getType());
+        assertEquals("alice", changes.get(0).getId());
+        assertEquals(Type.REMOVED, changes.get(1).getType());
+        assertEquals("/home/users/b", changes.get(1).getPath());
+        assertNull(changes.get(1).getId());
+    }
+
+    @Test
+    public void testUnattributedChange() throws RepositoryException {
+        dispatcher.enqueue("/home/users/rep:policy/allow", Event.NODE_ADDED);
+        flush();
+
+        AuthorizableChange change = batches.get(0).get(0);
+        assertEquals(Type.CHANGED, change.getType());
+        assertNull(change.getId());
+        assertEquals("/home/users/rep:policy/allow", change.getPath());
+    }
+
+    @Test
+    public void testOverflowResets() throws RepositoryException {
+        dispatcher.enqueue("/home/users/a/alice/one", Event.NODE_ADDED);
+        dispatcher.enqueue("/home/users/a/alice/two", Event.NODE_ADDED);
+        dispatcher.enqueue("/home/users/a/alice/three", Event.NODE_ADDED);
+        flush();
+
+        assertEquals(0, batches.size());
+        assertEquals(1, resets);
+        assertEquals(1, dispatcher.getResetCount());
+        assertEquals(3, dispatcher.getEventCount());
+    }
+
+    @Test
+    public void testObservesNewPathsOnRebind() {
+        List<String> observed = new ArrayList<>();
+        dispatcher.observe(newSession(observed, new ArrayList<>(), new EventListener[1]));
+        assertEquals(Arrays.asList("/home/users", "/home/groups"), observed);
+
+        dispatcher.setRootPaths("/other/users", "/other/groups");
+        assertEquals(Arrays.asList("/other/users", "/other/groups"), observed);
+
+        // unbound, nothing known to observe
+        dispatcher.setRootPaths(null, null);
+        assertTrue(observed.isEmpty());
+    }
+
+    @Test
+    public void testSessionOnlyUsedToResolveEvents() {
+        List<String> sessionCalls = new ArrayList<>();
+        EventListener[] listener = new EventListener[1];
+        dispatcher.observe(newSession(new ArrayList<>(), sessionCalls, listener));
+        sessionCalls.clear();
+
+        listener[0].onEvent(newEvents("/home/users/a/alice/profile/name"));
+        assertTrue(sessionCalls.contains("getUserManager"));
+        assertEquals(0, batches.size());
+        sessionCalls.clear();
+
+        dispatcher.deliver();
+        assertTrue(sessionCalls.isEmpty());
+        assertEquals(1, batches.size());
+        assertEquals("alice", batches.get(0).get(0).getId());
+    }
+
+    private JackrabbitSession newSession(List<String> observed, List<String> calls, EventListener[] registered) {
+        ObservationManager observationManager = proxy(ObservationManager.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "addEventListener":
+                    registered[0] = (EventListener)args[0];
+                    observed.add((String)args[2]);
+                    return null;
+                case "removeEventListener":
+                    observed.clear();
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        Workspace workspace = proxy(Workspace.class, (proxy, method, args) -> {
+            if ("getObservationManager".equals(method.getName())) {
+                return observationManager;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        UserManager userManager = proxy(UserManager.class, (proxy, method, args) -> {
+            if ("getAuthorizableByPath".equals(method.getName())) {
+                Located located = authorizables.get(args[0]);
+                return located == null ? null : proxy(Authorizable.class, (p, m, a) -> {
+                    if ("getID".equals(m.getName())) {
+                        return located.id;
+                    } else if ("isGroup".equals(m.getName())) {
+                        return located.group;
+                    }
+                    throw new UnsupportedOperationException(m.getName());
+                });
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        return proxy(JackrabbitSession.class, (proxy, method, args) -> {
+            calls.add(method.getName());
+            switch (method.getName()) {
+                case "getWorkspace":
+                    return workspace;
+                case "getUserManager":
+                    return userManager;
+                case "isLive":
+                    return true;
+                case "refresh":
+                    return null;
+                case "nodeExists":
+                    return authorizables.containsKey(args[0]);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private EventIterator newEvents(String path) {
+        Event event = proxy(Event.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getPath":
+                    return path;
+                case "getType":
+                    return Event.PROPERTY_CHANGED;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        Iterator<Event> it = Collections.singletonList(event).iterator();
+        return proxy(EventIterator.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hasNext":
+                    return it.hasNext();
+                case "nextEvent":
+                    return it.next();
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.ServletRequest;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.jackrabbit.usermanager.impl.cache.EffectiveCapabilityCache.Capabilities;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the EffectiveCapabilityCache answers each question once per request
+ */
+public class EffectiveCapabilityCacheTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger membershipChecks = new AtomicInteger();
+    private final EffectiveCapabilityCache cache = new EffectiveCapabilityCache();
+    private JackrabbitSession session;
+
+    @Before
+    public void setup() {
+        User user = proxy(User.class, (proxy, method, args) -> {
+            if ("isAdmin".equals(method.getName())) {
+                return false;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        Group userAdmin = proxy(Group.class, (proxy, method, args) -> {
+            if ("isMember".equals(method.getName())) {
+                membershipChecks.incrementAndGet();
+                return args[0] == user;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        UserManager userManager = proxy(UserManager.class, (proxy, method, args) -> {
+            if ("getAuthorizable".equals(method.getName())) {
+                lookups.incrementAndGet();
+                return "UserAdmin".equals(args[0]) ? userAdmin : "alice".equals(args[0]) ? user : null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        session = proxy(JackrabbitSession.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUserManager":
+                    return userManager;
+                case "getUserID":
+                    return "alice";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void testAnsweredOncePerRequest() throws RepositoryException {
+        ServletRequest request = newRequest();
+        Capabilities capabilities = cache.get(request, session);
+        assertFalse(capabilities.isAdmin());
+        assertTrue(capabilities.isMemberOf("UserAdmin"));
+        assertFalse(capabilities.isMemberOf("GroupAdmin"));
+        int lookupCount = lookups.get();
+
+        capabilities = cache.get(request, session);
+        assertFalse(capabilities.isAdmin());
+        assertTrue(capabilities.isMemberOf("UserAdmin"));
+        assertFalse(capabilities.isMemberOf("GroupAdmin"));
+        assertEquals(lookupCount, lookups.get());
+        assertEquals(1, membershipChecks.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNotSharedBetweenRequests() throws RepositoryException {
+        ServletRequest request = newRequest();
+        Capabilities remembered = cache.get(request, session);
+        assertTrue(remembered.isMemberOf("UserAdmin"));
+        assertSame(remembered, cache.get(request, session));
+
+        Capabilities capabilities = cache.get(newRequest(), session);
+        assertNotSame(remembered, capabilities);
+        assertTrue(capabilities.isMemberOf("UserAdmin"));
+        assertEquals(2, membershipChecks.get());
+    }
+
+    @Test
+    public void testNotRememberedWithoutRequest() throws RepositoryException {
+        Capabilities capabilities = cache.get(null, session);
+        assertTrue(capabilities.isMemberOf("UserAdmin"));
+        assertNotSame(capabilities, cache.get(null, session));
+        assertTrue(cache.get(null, session).isMemberOf("UserAdmin"));
+        assertEquals(2, membershipChecks.get());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testNoPathsNoPrivileges() throws RepositoryException {
+        // without a user configuration the folders are not known
+        assertFalse(cache.get(null, session).canManageUsers());
+        assertFalse(cache.get(null, session).canManageGroups());
+    }
+
+    private ServletRequest newRequest() {
+        Map<String, Object> attributes = new HashMap<>();
+        return proxy(ServletRequest.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAttribute":
+                    return attributes.get(args[0]);
+                case "setAttribute":
+                    attributes.put((String)args[0], args[1]);
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+}
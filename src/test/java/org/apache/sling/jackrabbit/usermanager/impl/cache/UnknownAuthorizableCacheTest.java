@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.jackrabbit.usermanager.impl.cache.AuthorizableChange.Type;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Basic coverage of the UnknownAuthorizableCache bookkeeping
+ */
+public class UnknownAuthorizableCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private UnknownAuthorizableCache cache;
+
+    @Before
+    public void setup() {
+        cache = new UnknownAuthorizableCache(now::get);
+        cache.configure(2, 10);
+    }
+
+    @Test
+    public void testMarkUnknown() {
+        assertFalse(cache.isUnknown("admin", "missing"));
+        cache.markUnknown("admin", "missing");
+        assertTrue(cache.isUnknown("admin", "missing"));
+        // entries are kept per session user
+        assertFalse(cache.isUnknown("anonymous", "missing"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1 / 3.0, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testExpiry() {
+        cache.markUnknown("admin", "missing");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertTrue(cache.isUnknown("admin", "missing"));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertFalse(cache.isUnknown("admin", "missing"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        cache.markUnknown("admin", "one");
+        cache.markUnknown("admin", "two");
+        // touch "one" so "two" is the least recently used
+        assertTrue(cache.isUnknown("admin", "one"));
+        cache.markUnknown("admin", "three");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.isUnknown("admin", "one"));
+        assertFalse(cache.isUnknown("admin", "two"));
+        assertTrue(cache.isUnknown("admin", "three"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.markUnknown("admin", "missing");
+        cache.markUnknown("anonymous", "missing");
+        cache.invalidate("missing");
+        assertFalse(cache.isUnknown("admin", "missing"));
+        assertFalse(cache.isUnknown("anonymous", "missing"));
+
+        cache.markUnknown("admin", "missing");
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void testOnChange() {
+        cache.markUnknown("admin", "alice");
+        cache.markUnknown("admin", "bob");
+        cache.onChange(Collections.singletonList(
+                new AuthorizableChange(Type.CHANGED, "/home/users/a/alice", "alice", false)));
+        assertFalse(cache.isUnknown("admin", "alice"));
+        assertTrue(cache.isUnknown("admin", "bob"));
+
+        // a change that is not attributed to a single authorizable drops everything
+        cache.onChange(Collections.singletonList(
+                new AuthorizableChange(Type.CHANGED, "/home/users/rep:policy", null, false)));
+        assertFalse(cache.isUnknown("admin", "bob"));
+    }
+
+    @Test
+    public void testDisabled() {
+        cache.configure(0, 10);
+        cache.markUnknown("admin", "missing");
+        assertFalse(cache.isUnknown("admin", "missing"));
+        assertEquals(0, cache.getSize());
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.user.AuthorizableType;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameFilter;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+/**
+ * Coverage of CreateUserServlet#getPrincipalNames with and without bound
+ * principal name generators
+ */
+public class CreateUserServletPrincipalNamesTest {
+
+    private final Set<String> existing = new HashSet<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final CreateUserServlet servlet = new CreateUserServlet();
+    private JackrabbitSession session;
+
+    @Before
+    public void setup() {
+        UserManager userManager = proxy(UserManager.class, (proxy, method, args) -> {
+            if ("findAuthorizables".equals(method.getName())) {
+                // the query is not evaluated, the allocator has to filter the ids itself
+                queries.incrementAndGet();
+                List<Authorizable> result = new ArrayList<>();
+                for (String id : existing) {
+                    result.add(authorizable(id));
+                }
+                return result.iterator();
+            } else if ("getAuthorizable".equals(method.getName())) {
+                return existing.contains(args[0]) ? authorizable((String) args[0]) : null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        session = proxy(JackrabbitSession.class, (proxy, method, args) -> {
+            if ("getUserManager".equals(method.getName())) {
+                return userManager;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private Authorizable authorizable(String id) {
+        return proxy(Authorizable.class, (proxy, method, args) -> {
+            if ("getID".equals(method.getName())) {
+                return id;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static Map<String, ?> properties(String name, String value) {
+        return Collections.singletonMap(name, new String[] {value});
+    }
+
+    private void bind(PrincipalNameGenerator generator, int ranking) {
+        servlet.bindPrincipalNameGenerator(generator,
+                Collections.singletonMap(Constants.SERVICE_RANKING, ranking));
+    }
+
+    @Test
+    public void testDefaultGenerator() throws RepositoryException {
+        bind(new PrincipalNameGeneratorImpl(), 0);
+        existing.add("john");
+        List<Map<String, ?>> propertiesList = Arrays.asList(
+                properties(SlingPostConstants.RP_NODE_NAME_HINT, "john"),
+                properties(SlingPostConstants.RP_NODE_NAME_HINT, "john"),
+                properties(SlingPostConstants.RP_NODE_NAME, "mary"),
+                properties("unknown", "value"));
+        assertEquals(Arrays.asList("john_1", "john_2", "mary", null),
+                servlet.getPrincipalNames(session, propertiesList));
+        // one query for the whole batch
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    public void testFallbackToDefaultGenerator() throws RepositoryException {
+        AtomicInteger calls = new AtomicInteger();
+        // only implements getPrincipalName, so the batch goes through the default getPrincipalNames
+        PrincipalNameGenerator custom = new PrincipalNameGenerator() {
+            @Override
+            public NameInfo getPrincipalName(Map<String, ?> parameters, AuthorizableType type,
+                    PrincipalNameFilter principalNameFilter, PrincipalNameGenerator defaultPrincipalNameGenerator) {
+                calls.incrementAndGet();
+                Object email = parameters.get("email");
+                return email == null ? null : new NameInfo(((String[])email)[0].split("@")[0], true);
+            }
+        };
+        bind(new PrincipalNameGeneratorImpl(), 0);
+        bind(custom, 10);
+        existing.add("jane");
+        List<Map<String, ?>> propertiesList = Arrays.asList(
+                properties("email", "jane@example.org"),
+                properties(SlingPostConstants.RP_NODE_NAME_HINT, "jane"),
+                properties("unknown", "value"));
+        // the null name infos of the custom generator are filled in by the default one
+        assertEquals(Arrays.asList("jane_1", "jane_2", null),
+                servlet.getPrincipalNames(session, propertiesList));
+        assertEquals(3, calls.get());
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    public void testNoGenerator() throws RepositoryException {
+        existing.add("john");
+        List<Map<String, ?>> propertiesList = Arrays.asList(
+                Collections.singletonMap(SlingPostConstants.RP_NODE_NAME, "john"),
+                properties(SlingPostConstants.RP_NODE_NAME, "mary"),
+                properties(SlingPostConstants.RP_NODE_NAME_HINT, "jane"));
+        // the names are taken as they are, like a single user creation does without generators
+        assertEquals(Arrays.asList("john", "mary", null),
+                servlet.getPrincipalNames(session, propertiesList));
+        assertEquals(0, queries.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoSession() throws RepositoryException {
+        servlet.getPrincipalNames(null, Collections.emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the time taken by 32 threads that each parse the date values
+ * of many profile updates with the DateParser of the Sling POST servlets,
+ * which parses while holding a lock, versus the DateParser built on
+ * java.time formatters.
+ * <p>
+ * Only runs when the "benchmark" system property is true, for example:
+ * <code>mvn test -Dtest=DateParserBenchmarkTest -Dbenchmark=true</code>
+ * </p>
+ */
+public class DateParserBenchmarkTest {
+
+    private static final int THREADS = 32;
+    private static final int UPDATES = 2000;
+
+    private DateParser parser;
+    private org.apache.sling.servlets.post.impl.helper.DateParser legacy;
+
+    @Before
+    public void setup() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        parser = new DateParser();
+        legacy = new org.apache.sling.servlets.post.impl.helper.DateParser();
+        for (String format : DateParserTest.FORMATS) {
+            parser.register(format);
+            legacy.register(format);
+        }
+    }
+
+    @Test
+    public void testConcurrentProfileUpdates() throws Exception {
+        for (String value : DateParserTest.VALUES) {
+            assertEquals(value, legacy.parse(value).getTimeInMillis(), parser.parse(value).getTimeInMillis());
+        }
+
+        // warm up
+        run(legacy::parse);
+        run(parser::parse);
+
+        long legacyNanos = run(legacy::parse);
+        long parserNanos = run(parser::parse);
+        System.out.println(String.format("%d threads each parsing the dates of %d profile updates: legacy=%dms, java.time=%dms (%.1f%%)",
+                THREADS, UPDATES, legacyNanos / 1000000, parserNanos / 1000000, 100.0 * parserNanos / legacyNanos));
+        assertTrue(parserNanos < legacyNanos);
+    }
+
+    /**
+     * Each thread submits the dates of its updates in one format, the way a
+     * client does, with a different format per thread
+     *
+     * @return the nanoseconds until all the threads are done
+     */
+    private long run(Function<String, Calendar> parse) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String value = DateParserTest.VALUES[t % DateParserTest.VALUES.length];
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < UPDATES; i++) {
+                        // birthday, last login and membership expiry
+                        for (int d = 0; d < 3; d++) {
+                            if (parse.apply(value) == null) {
+                                throw new IllegalStateException("Failed parsing " + value);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the DateParser gives the same dates as the DateParser of the
+ * Sling POST servlets it replaces
+ */
+public class DateParserTest {
+
+    /**
+     * The formats configured for the UpdateUserServlet
+     */
+    static final String[] FORMATS = {
+            "EEE MMM dd yyyy HH:mm:ss 'GMT'Z",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZ",
+            "yyyy-MM-dd'T'HH:mm:ss",
+            "yyyy-MM-dd",
+            "dd.MM.yyyy HH:mm:ss",
+            "dd.MM.yyyy"
+    };
+
+    static final String[] VALUES = {
+            "Mon Jan 15 2024 10:20:30 GMT+0100",
+            "Mon Jan 15 2024 10:20:30 GMT+0100 (Central European Standard Time)",
+            "2024-01-15T10:20:30.123+0100",
+            "2024-01-15T10:20:30",
+            "2024-01-15",
+            "15.01.2024 10:20:30",
+            "15.01.2024",
+            "1.2.2024"
+    };
+
+    private DateParser parser;
+    private org.apache.sling.servlets.post.impl.helper.DateParser reference;
+
+    @Before
+    public void setup() {
+        parser = new DateParser();
+        reference = new org.apache.sling.servlets.post.impl.helper.DateParser();
+        for (String format : FORMATS) {
+            parser.register(format);
+            reference.register(format);
+        }
+    }
+
+    @Test
+    public void testSameAsReference() {
+        for (String value : VALUES) {
+            assertSameAsReference(value);
+        }
+    }
+
+    @Test
+    public void testConfiguredOrder() {
+        // the same value gives the same date, whatever was parsed before
+        for (String first : VALUES) {
+            for (String value : VALUES) {
+                parser.parse(first);
+                assertSameAsReference(value);
+            }
+        }
+    }
+
+    @Test
+    public void testSimpleDateFormatLetters() {
+        // S is milliseconds, u the day of the week, Y the week year and yy
+        // a sliding century for SimpleDateFormat but not for java.time
+        assertSameAsReference("yyyy-MM-dd HH:mm:ss.S", "2024-01-15 10:20:30.5");
+        assertSameAsReference("yyyy-MM-dd HH:mm:ss.SSS", "2024-01-15 10:20:30.5");
+        assertSameAsReference("uuuu-MM-dd", "2024-01-15");
+        assertSameAsReference("YYYY-MM-dd", "2024-01-15");
+        assertSameAsReference("dd.MM.yy", "15.01.70");
+        assertSameAsReference("yyyy-MM-dd'T'HH:mm:ssZ", "2024-01-15T10:20:30GMT+01:00");
+        assertSameAsReference("yyyy-MM-dd z", "2024-01-15 PST");
+    }
+
+    @Test
+    public void testInvalidPatternSkipped() {
+        // n is the nano of second for java.time but not a SimpleDateFormat letter
+        DateParser nano = new DateParser();
+        nano.register("yyyy-MM-dd HH:mm:ss.n");
+        nano.register("yyyy-MM-dd");
+        Calendar c = nano.parse("2024-01-15 10:20:30.5");
+        assertNotNull(c);
+        assertEquals(0, c.get(Calendar.HOUR_OF_DAY));
+    }
+
+    @Test
+    public void testHasSameMeaning() {
+        for (String format : new String[] {"yyyy-MM-dd", "dd.MM.yyyy HH:mm:ss", "EEE MMM dd yyyy hh:mm a",
+                "yyyy-MM-dd'T'HH:mm:ssXXX", "'It''s' D yyy G"}) {
+            assertTrue(format, DateParser.hasSameMeaning(format));
+        }
+        for (String format : new String[] {"yyyy-MM-dd'T'HH:mm:ss.SSS", "uuuu-MM-dd", "YYYY-MM-dd", "dd.MM.yy",
+                "yyyy-MM-dd HH:mm:ss.n", "yyyy-MM-dd Z", "yyyy-MM-dd z", "yyyy-MM-dd[ HH:mm]", "MMMMM yyyy",
+                "yyyy-MM-dd 'open"}) {
+            assertFalse(format, DateParser.hasSameMeaning(format));
+        }
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertNull(parser.parse("not a date"));
+        assertNull(parser.parse(""));
+        assertNull(parser.parse(new String[] {"2024-01-15", "not a date"}, null));
+    }
+
+    @Test
+    public void testIso8601() {
+        DateParser iso = new DateParser();
+        iso.register(DateParser.ISO8601);
+        Calendar c = iso.parse("2024-01-15T10:20:30.123+01:00");
+        assertNotNull(c);
+        assertEquals(1705310430123L, c.getTimeInMillis());
+        assertNull(iso.parse("15.01.2024"));
+    }
+
+    private static void assertSameAsReference(String format, String value) {
+        DateParser single = new DateParser();
+        single.register(format);
+        org.apache.sling.servlets.post.impl.helper.DateParser singleReference =
+                new org.apache.sling.servlets.post.impl.helper.DateParser();
+        singleReference.register(format);
+        Calendar expected = singleReference.parse(value);
+        Calendar actual = single.parse(value);
+        assertNotNull(format, expected);
+        assertNotNull(format, actual);
+        assertEquals(format, expected.getTimeInMillis(), actual.getTimeInMillis());
+    }
+
+    private void assertSameAsReference(String value) {
+        Calendar expected = reference.parse(value);
+        Calendar actual = parser.parse(value);
+        assertNotNull(value, expected);
+        assertNotNull(value, actual);
+        assertEquals(value, expected.getTimeInMillis(), actual.getTimeInMillis());
+        assertEquals(value, expected.getTimeZone(), actual.getTimeZone());
+    }
+
+}
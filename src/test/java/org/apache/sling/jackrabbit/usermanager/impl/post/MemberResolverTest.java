@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the MemberResolver only opens a resource resolver for the path fallback
+ */
+public class MemberResolverTest {
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final Authorizable bob = proxy(Authorizable.class, (proxy, method, args) -> {
+        throw new UnsupportedOperationException(method.getName());
+    });
+    private Session session;
+    private UserManager userManager;
+    private ResourceResolverFactory factory;
+
+    @Before
+    public void setup() {
+        session = proxy(Session.class, (proxy, method, args) -> {
+            throw new UnsupportedOperationException(method.getName());
+        });
+        userManager = proxy(UserManager.class, (proxy, method, args) -> {
+            if ("getAuthorizable".equals(method.getName()) && "bob".equals(args[0])) {
+                return bob;
+            } else if ("getAuthorizable".equals(method.getName())) {
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        factory = proxy(ResourceResolverFactory.class, (proxy, method, args) -> {
+            if ("getResourceResolver".equals(method.getName())) {
+                opened.incrementAndGet();
+                return newResolver();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private ResourceResolver newResolver() {
+        return proxy(ResourceResolver.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getResource":
+                    return null;
+                case "close":
+                    closed.incrementAndGet();
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void testIdsDoNotNeedResolver() throws RepositoryException {
+        try (MemberResolver members = new MemberResolver(session, userManager, null, factory, "/system/userManager/group")) {
+            assertSame(bob, members.resolve("bob"));
+            assertSame(bob, members.resolve("bob"));
+        }
+        assertEquals(0, opened.get());
+        assertEquals(0, closed.get());
+    }
+
+    @Test
+    public void testPathFallbackOpensResolverOnce() throws RepositoryException {
+        try (MemberResolver members = new MemberResolver(session, userManager, null, factory, "/system/userManager/group")) {
+            assertNull(members.resolve("../user/alice"));
+            assertNull(members.resolve("../user/carol"));
+        }
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testCallerResolverIsNotClosed() throws RepositoryException {
+        try (MemberResolver members = new MemberResolver(session, userManager, newResolver(), factory, "/system/userManager/group")) {
+            assertNull(members.resolve("../user/alice"));
+        }
+        assertEquals(0, opened.get());
+        assertEquals(0, closed.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+}
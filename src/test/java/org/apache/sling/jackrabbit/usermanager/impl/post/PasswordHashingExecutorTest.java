@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Coverage of the back-pressure of the PasswordHashingExecutor
+ */
+public class PasswordHashingExecutorTest {
+
+    private PasswordHashingExecutor executor;
+
+    @Before
+    public void setup() {
+        executor = new PasswordHashingExecutor();
+        executor.configure(1, 1);
+    }
+
+    @After
+    public void teardown() {
+        executor.deactivate();
+    }
+
+    @Test
+    public void testExecute() throws RepositoryException {
+        assertEquals("done", executor.execute(() -> "done"));
+        assertEquals(1, executor.getCompletedCount());
+    }
+
+    @Test
+    public void testRunsOnCallingThread() throws RepositoryException {
+        // the session of the request must not be used by another thread
+        assertSame(Thread.currentThread(), executor.execute(Thread::currentThread));
+        assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void testFailure() throws RepositoryException {
+        executor.execute(() -> {
+            throw new RepositoryException("failed");
+        });
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread running = new Thread(() -> run(() -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        running.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread queued = new Thread(() -> run(() -> null));
+        queued.start();
+        while (executor.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+
+        try {
+            executor.execute(() -> null);
+            fail("Expected the password change to be rejected");
+        } catch (RequestRejectedException e) {
+            assertEquals(PasswordHashingExecutor.SC_TOO_MANY_REQUESTS, e.getStatus());
+        } finally {
+            release.countDown();
+            running.join();
+            queued.join();
+        }
+        assertEquals(1, executor.getRejectedCount());
+        assertEquals(1, executor.getPeakQueueDepth());
+    }
+
+    @Test
+    public void testDeactivated() {
+        executor.deactivate();
+        assertEquals(0, executor.getPoolSize());
+        assertEquals(0, executor.getActiveCount());
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(0, executor.getCompletedCount());
+        try {
+            executor.execute(() -> "done");
+            fail("Expected the password change to fail");
+        } catch (RepositoryException e) {
+            // expected
+        }
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    private void run(Callable<Void> task) {
+        try {
+            executor.execute(task);
+        } catch (RepositoryException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Query;
+import org.apache.jackrabbit.api.security.user.QueryBuilder;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator.NameInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the PrincipalNameAllocator needs a constant number of lookups
+ */
+public class PrincipalNameAllocatorTest {
+
+    private final Set<String> existing = new HashSet<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final List<String> patterns = new ArrayList<>();
+    private final PrincipalNameAllocator allocator = new PrincipalNameAllocator();
+    private UserManager userManager;
+
+    @Before
+    public void setup() {
+        userManager = proxy(UserManager.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAuthorizable":
+                    lookups.incrementAndGet();
+                    return existing.contains(args[0]) ? authorizable((String)args[0]) : null;
+                case "findAuthorizables":
+                    queries.incrementAndGet();
+                    List<String> prefixes = new ArrayList<>();
+                    ((Query) args[0]).build(queryBuilder(prefixes));
+                    List<Authorizable> result = new ArrayList<>();
+                    for (String id : existing) {
+                        for (String prefix : prefixes) {
+                            if (id.startsWith(prefix)) {
+                                result.add(authorizable(id));
+                                break;
+                            }
+                        }
+                    }
+                    return result.iterator();
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Records the prefixes of the like conditions, the patterns are expected
+     * to end with the only wildcard
+     */
+    private QueryBuilder<?> queryBuilder(List<String> prefixes) {
+        return proxy(QueryBuilder.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "like":
+                    String pattern = (String) args[1];
+                    assertEquals("@rep:authorizableId", args[0]);
+                    assertTrue(pattern, pattern.endsWith("%"));
+                    patterns.add(pattern);
+                    prefixes.add(pattern.substring(0, pattern.length() - 1).replaceAll("\\\\(.)", "$1"));
+                    return pattern;
+                case "or":
+                case "setSelector":
+                case "setCondition":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Authorizable authorizable(String id) {
+        return proxy(Authorizable.class, (proxy, method, args) -> {
+            if ("getID".equals(method.getName())) {
+                return id;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @Test
+    public void testUnusedName() throws RepositoryException {
+        assertEquals("john", allocator.allocate(userManager, "john"));
+        assertEquals(1, lookups.get());
+        assertEquals(0, queries.get());
+    }
+
+    @Test
+    public void testNextFreeSuffix() throws RepositoryException {
+        existing.add("john");
+        for (int i = 1; i <= 500; i++) {
+            existing.add("john_" + i);
+        }
+        existing.add("john_smith");
+        existing.add("johnny_900");
+
+        String name = allocator.allocate(userManager, "john");
+        assertEquals("john_501", name);
+        assertEquals(1, queries.get());
+        assertEquals(Arrays.asList("john\\_%"), patterns);
+        assertEquals(2, lookups.get());
+        existing.add(name);
+
+        // the counter is remembered, so the next allocation needs no query
+        assertEquals("john_502", allocator.allocate(userManager, "john"));
+        assertEquals(1, queries.get());
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    public void testCatchUp() throws RepositoryException {
+        existing.add("john");
+        existing.add("john_1");
+        existing.add(allocator.allocate(userManager, "john"));
+        // created elsewhere
+        existing.add("john_3");
+        existing.add("john_4");
+        assertEquals("john_5", allocator.allocate(userManager, "john"));
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStemsForgotten() throws RepositoryException {
+        existing.add("john");
+        existing.add(allocator.allocate(userManager, "john"));
+        for (int i = 0; i < 1000; i++) {
+            existing.add("user" + i);
+            allocator.allocate(userManager, "user" + i);
+            if (i % 100 == 0) {
+                // keeps the counter of john in use
+                existing.add(allocator.allocate(userManager, "john"));
+            }
+        }
+        assertEquals(1001, queries.get());
+        assertEquals("john_12", allocator.allocate(userManager, "john"));
+        assertEquals(1001, queries.get());
+        // the first stem was forgotten
+        allocator.allocate(userManager, "user0");
+        assertEquals(1002, queries.get());
+    }
+
+    @Test
+    public void testBatch() throws RepositoryException {
+        existing.add("john");
+        existing.add("john_1");
+        existing.add("mary");
+        existing.add("johnny");
+        existing.add("jane_doe");
+        List<NameInfo> nameInfos = Arrays.asList(
+                new NameInfo("john", true),
+                new NameInfo("jane", true),
+                new NameInfo("john", true),
+                null,
+                new NameInfo("jane", true),
+                new NameInfo("mary", false));
+        assertEquals(Arrays.asList("john_2", "jane", "john_3", null, "jane_1", "mary"),
+                allocator.allocateAll(userManager, nameInfos));
+        // one query for the whole batch and one lookup per name stem
+        assertEquals(1, queries.get());
+        assertEquals(2, lookups.get());
+        assertEquals(Arrays.asList("john\\_%", "jane\\_%"), patterns);
+    }
+
+    @Test
+    public void testHelpers() {
+        assertEquals(42, PrincipalNameAllocator.parseSuffix("john_42", 5));
+        assertEquals(0, PrincipalNameAllocator.parseSuffix("john_4x", 5));
+        assertEquals(0, PrincipalNameAllocator.parseSuffix("john_", 5));
+        assertEquals("a\\_b\\%c\\\\", PrincipalNameAllocator.escapeLike("a_b%c\\"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jackrabbit.oak.spi.security.user.AuthorizableType;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.request.builder.Builders;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameFilter;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator;
+import org.apache.sling.jackrabbit.usermanager.PrincipalNameGenerator.NameInfo;
+import org.apache.sling.jcr.jackrabbit.usermanager.it.post.CustomPrincipalNameFilterImpl;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the time and bytes allocated per generated principal name when
+ * the hints are converted to lists for every lookup versus the steps
+ * compiled by the PrincipalNameGeneratorImpl, with many configured hints
+ * and only the last one present in the request.
+ * <p>
+ * Only runs when the "benchmark" system property is true, for example:
+ * <code>mvn test -Dtest=PrincipalNameGeneratorBenchmarkTest -Dbenchmark=true</code>
+ * </p>
+ */
+public class PrincipalNameGeneratorBenchmarkTest {
+
+    private static final int HINTS = 200;
+    private static final int NAMES = 20000;
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final PrincipalNameFilter filter = new CustomPrincipalNameFilterImpl();
+
+    private PrincipalNameGenerator compiled;
+    private PrincipalNameGenerator legacy;
+    private Map<String, RequestParameter[]> parameters;
+
+    @Before
+    public void setup() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        String[] hints = new String[HINTS];
+        for (int i = 0; i < HINTS; i++) {
+            hints[i] = "hint" + i;
+        }
+        compiled = new PrincipalNameGeneratorImpl(hints, 20);
+        legacy = new LegacyPrincipalNameGenerator(hints, 20);
+
+        parameters = new HashMap<>();
+        parameters.put("unrelated", new RequestParameter[] {
+                Builders.newRequestParameter("unrelated", "value")
+        });
+        String last = hints[HINTS - 1];
+        parameters.put(last, new RequestParameter[] {
+                Builders.newRequestParameter(last, ""),
+                Builders.newRequestParameter(last, "Some Very Long Display Name")
+        });
+    }
+
+    private NameInfo generate(PrincipalNameGenerator generator) {
+        return generator.getPrincipalName(parameters, AuthorizableType.USER, filter, generator);
+    }
+
+    @Test
+    public void testGeneratePrincipalNames() {
+        NameInfo expected = generate(legacy);
+        NameInfo actual = generate(compiled);
+        assertEquals(expected.getPrincipalName(), actual.getPrincipalName());
+        assertEquals(expected.isMakeUnique(), actual.isMakeUnique());
+
+        // warm up
+        for (int i = 0; i < NAMES; i++) {
+            generate(legacy);
+            generate(compiled);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long[] legacyResult = measure(legacy, threadId);
+        long[] compiledResult = measure(compiled, threadId);
+        System.out.println(String.format("Principal names from %d hints, per name: legacy=%dns/%d bytes, compiled=%dns/%d bytes (%.1f%% of the bytes)",
+                HINTS, legacyResult[0], legacyResult[1], compiledResult[0], compiledResult[1],
+                100.0 * compiledResult[1] / legacyResult[1]));
+        assertTrue(compiledResult[1] < legacyResult[1]);
+    }
+
+    /**
+     * @return the nanoseconds and the bytes allocated per generated name
+     */
+    private long[] measure(PrincipalNameGenerator generator, long threadId) {
+        long bytesBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < NAMES; i++) {
+            generate(generator);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = threadBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+        return new long[] { nanos / NAMES, bytes / NAMES };
+    }
+
+    /**
+     * What PrincipalNameGeneratorImpl did for each name before
+     */
+    private static final class LegacyPrincipalNameGenerator extends PrincipalNameGeneratorImpl {
+        private final String[] parameterNames;
+        private final int maxLength;
+
+        private LegacyPrincipalNameGenerator(String[] parameterNames, int maxLength) {
+            super(parameterNames, maxLength);
+            this.parameterNames = parameterNames;
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public NameInfo getPrincipalName(Map<String, ?> parameters, AuthorizableType type,
+                PrincipalNameFilter principalNameFilter, PrincipalNameGenerator defaultPrincipalNameGenerator) {
+            boolean doFilter = true;
+            String valueToUse = getValueToUse(parameters, SlingPostConstants.RP_NODE_NAME);
+            if (valueToUse != null) {
+                doFilter = false;
+            }
+            if (valueToUse == null) {
+                valueToUse = getValueToUse(parameters, SlingPostConstants.RP_NODE_NAME_HINT);
+                if (valueToUse == null) {
+                    for (String param : parameterNames) {
+                        valueToUse = getValueToUse(parameters, param);
+                        if (valueToUse != null) {
+                            break;
+                        }
+                    }
+                }
+            }
+            String result = valueToUse;
+            if (doFilter && result != null && principalNameFilter != null) {
+                result = principalNameFilter.filter(result);
+            }
+            if (doFilter && result != null && result.length() > maxLength) {
+                result = result.substring(0, maxLength);
+            }
+            return result == null ? null : new NameInfo(result, doFilter);
+        }
+    }
+
+}
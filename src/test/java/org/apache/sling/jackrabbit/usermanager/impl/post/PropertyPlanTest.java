@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.impl.helper.RequestProperty;
+import org.junit.Test;
+
+/**
+ * Coverage of the classification of the request parameters
+ */
+public class PropertyPlanTest {
+
+    private final AbstractAuthorizablePostServlet servlet = new AbstractAuthorizablePostServlet() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void handleOperation(SlingHttpServletRequest request, PostResponse response,
+                List<Modification> changes) {
+            // not used
+        }
+    };
+
+    @Test
+    public void testCollectContentMap() {
+        Map<String, Object> params = new HashMap<>();
+        params.put(":redirect", "/");
+        params.put("_charset_", "utf-8");
+        params.put("age", "42");
+        params.put("age@TypeHint", "Long");
+        params.put("nick@DefaultValue", "none");
+        params.put("text@ValueFrom", "fulltext");
+        params.put("old@Delete", "");
+        params.put("moved@MoveFrom", "/tmp/path");
+        params.put("../outside", "x");
+        params.put("mail@home", "a@b");
+
+        Map<String, RequestProperty> props = servlet.collectContentMap(params);
+        assertEquals(5, props.size());
+        assertEquals("Long", props.get("/age").getTypeHint());
+        assertEquals("42", props.get("/age").getStringValues()[0]);
+        assertTrue(props.containsKey("/nick"));
+        assertEquals("fulltext", props.get("/text").getStringValues()[0]);
+        assertTrue(props.get("/old").isDelete());
+        // an unknown suffix is part of the property name
+        assertEquals("a@b", props.get("/mail@home").getStringValues()[0]);
+        assertFalse(props.containsKey("/moved"));
+    }
+
+    @Test
+    public void testRequireItemPrefix() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("./first", "1");
+        params.put("second", "2");
+
+        PropertyPlan plan = PropertyPlan.compile(params.keySet());
+        assertArrayEquals(new String[] {"/first"}, plan.getPropertyPaths());
+        assertEquals(1, servlet.collectContentMap(plan, params).size());
+    }
+
+    @Test
+    public void testReusePlan() {
+        Map<String, Object> first = new HashMap<>();
+        first.put("./name", "one");
+        Map<String, Object> second = new HashMap<>();
+        second.put("./name", "two");
+
+        PropertyPlan plan = PropertyPlan.compile(first.keySet());
+        assertEquals("one", servlet.collectContentMap(plan, first).get("/name").getStringValues()[0]);
+        assertEquals("two", servlet.collectContentMap(plan, second).get("/name").getStringValues()[0]);
+    }
+
+    @Test
+    public void testPlanIsRemembered() {
+        Map<String, Object> first = new HashMap<>();
+        first.put("./name", "one");
+        first.put("./profile/jcr:primaryType", "nt:unstructured");
+        Map<String, Object> second = new HashMap<>(first);
+        second.put("./name", "two");
+
+        PropertyPlan plan = servlet.getPropertyPlan(first.keySet());
+        assertSame(plan, servlet.getPropertyPlan(second.keySet()));
+        assertArrayEquals(new String[] {"/profile/jcr:primaryType"}, plan.getStructuralPaths());
+    }
+
+}
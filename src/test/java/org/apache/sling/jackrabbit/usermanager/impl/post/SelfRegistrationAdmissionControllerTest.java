@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Basic coverage of the SelfRegistrationAdmissionController decisions
+ */
+public class SelfRegistrationAdmissionControllerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private SelfRegistrationAdmissionController controller;
+
+    @Before
+    public void setup() {
+        controller = new SelfRegistrationAdmissionController(now::get);
+        controller.configure(6, 2, 2, 2);
+    }
+
+    @Test
+    public void testRateLimit() {
+        controller.admit("10.0.0.1").close();
+        controller.admit("10.0.0.1").close();
+        assertRejected("10.0.0.1");
+        // other clients have their own bucket
+        controller.admit("10.0.0.2").close();
+
+        // one token every 10 seconds
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        controller.admit("10.0.0.1").close();
+        assertRejected("10.0.0.1");
+
+        assertEquals(4, controller.getAdmittedCount());
+        assertEquals(2, controller.getRateLimitedCount());
+        assertEquals(0, controller.getConcurrencyLimitedCount());
+    }
+
+    @Test
+    public void testConcurrencyLimit() {
+        SelfRegistrationAdmissionController.Permit first = controller.admit("10.0.0.1");
+        SelfRegistrationAdmissionController.Permit second = controller.admit("10.0.0.2");
+        assertEquals(2, controller.getActiveCount());
+        assertRejected("10.0.0.3");
+        assertEquals(1, controller.getConcurrencyLimitedCount());
+
+        first.close();
+        // closing twice does not release twice
+        first.close();
+        assertEquals(1, controller.getActiveCount());
+        controller.admit("10.0.0.3").close();
+        second.close();
+        assertEquals(0, controller.getActiveCount());
+    }
+
+    @Test
+    public void testTrackedClients() {
+        controller.admit("10.0.0.1").close();
+        controller.admit("10.0.0.2").close();
+        controller.admit("10.0.0.3").close();
+        assertEquals(2, controller.getTrackedClientCount());
+    }
+
+    @Test
+    public void testUnlimited() {
+        controller.configure(0, 1, 0, 10);
+        for (int i = 0; i < 100; i++) {
+            controller.admit("10.0.0.1");
+        }
+        assertEquals(100, controller.getAdmittedCount());
+        assertEquals(0, controller.getTrackedClientCount());
+    }
+
+    @Test
+    public void testClientKeyFromRemoteAddress() {
+        HttpServletRequest request = newRequest("10.0.0.1", "X-Forwarded-For", "192.168.1.1");
+        // the header is not trusted unless configured
+        assertEquals("10.0.0.1", controller.getClientKey(request));
+    }
+
+    @Test
+    public void testClientKeyFromForwardedHeader() {
+        controller.setClientAddressHeader("X-Forwarded-For");
+        assertEquals("192.168.1.1", controller.getClientKey(newRequest("10.0.0.1", "X-Forwarded-For", "192.168.1.1")));
+        // the proxy appends the address it saw to whatever the client sent
+        assertEquals("192.168.1.2",
+                controller.getClientKey(newRequest("10.0.0.1", "X-Forwarded-For", "1.2.3.4, 192.168.1.2 ")));
+        assertEquals("10.0.0.1", controller.getClientKey(newRequest("10.0.0.1", "X-Other", "192.168.1.1")));
+        assertEquals("10.0.0.1", controller.getClientKey(newRequest("10.0.0.1", "X-Forwarded-For", " , ")));
+    }
+
+    @Test
+    public void testForwardedClientsLimitedSeparately() {
+        controller.setClientAddressHeader("X-Forwarded-For");
+        HttpServletRequest first = newRequest("10.0.0.1", "X-Forwarded-For", "192.168.1.1");
+        HttpServletRequest second = newRequest("10.0.0.1", "X-Forwarded-For", "192.168.1.2");
+        controller.admit(controller.getClientKey(first)).close();
+        controller.admit(controller.getClientKey(first)).close();
+        assertRejected(controller.getClientKey(first));
+        controller.admit(controller.getClientKey(second)).close();
+    }
+
+    private HttpServletRequest newRequest(String remoteAddr, String headerName, String headerValue) {
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getRemoteAddr":
+                    return remoteAddr;
+                case "getHeader":
+                    return headerName.equalsIgnoreCase((String)args[0]) ? headerValue : null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private void assertRejected(String clientKey) {
+        try {
+            controller.admit(clientKey);
+            fail("Expected the request to be rejected");
+        } catch (RequestRejectedException e) {
+            assertEquals(PasswordHashingExecutor.SC_TOO_MANY_REQUESTS, e.getStatus());
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Coverage of the ServiceSessionPool bookkeeping
+ */
+public class ServiceSessionPoolTest {
+
+    private final AtomicInteger refreshes = new AtomicInteger();
+    private final AtomicInteger logouts = new AtomicInteger();
+    private ServiceSessionPool pool;
+
+    @Before
+    public void setup() {
+        pool = new ServiceSessionPool();
+        pool.setRepository((SlingRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {SlingRepository.class}, (proxy, method, args) -> {
+                    if ("loginService".equals(method.getName())) {
+                        return newSession();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+        pool.configure(1, 1);
+    }
+
+    private Session newSession() {
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Session.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "refresh":
+                            refreshes.incrementAndGet();
+                            return null;
+                        case "logout":
+                            logouts.incrementAndGet();
+                            return null;
+                        case "isLive":
+                            return true;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void testReuse() throws RepositoryException {
+        Session first = pool.borrow();
+        assertEquals(1.0, pool.getUtilisation(), 0.0001);
+        pool.release(first);
+        Session second = pool.borrow();
+        assertSame(first, second);
+        pool.release(second);
+
+        assertEquals(1, pool.getLoginCount());
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+        // refreshed when borrowed and when returned
+        assertEquals(4, refreshes.get());
+        assertEquals(0, logouts.get());
+    }
+
+    @Test
+    public void testOverflow() throws RepositoryException {
+        Session first = pool.borrow();
+        Session second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(1, pool.getOverflowCount());
+
+        // the session outside of the pool is logged out
+        pool.release(second);
+        assertEquals(1, logouts.get());
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+
+        pool.deactivate();
+        assertEquals(2, logouts.get());
+        assertEquals(0, pool.getOpenCount());
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.AccessDeniedException;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.jackrabbit.usermanager.impl.post.UpdatePlan.Step;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.junit.Test;
+
+/**
+ * Coverage of the ordering of the update steps
+ */
+public class UpdatePlanTest {
+
+    private final AbstractAuthorizablePostServlet servlet = new AbstractAuthorizablePostServlet() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void handleOperation(SlingHttpServletRequest request, PostResponse response,
+                List<Modification> changes) {
+            // not used
+        }
+    };
+
+    private UpdatePlan plan(Map<String, Object> params, boolean group) throws AccessDeniedException {
+        return UpdatePlan.plan(servlet.collectContentMap(params).values(), group);
+    }
+
+    private static List<String> describe(UpdatePlan plan) {
+        List<String> steps = new ArrayList<>();
+        for (Step step : plan.getSteps()) {
+            steps.add(step.getAction() + " " + step.getProperty().getPath());
+        }
+        return steps;
+    }
+
+    @Test
+    public void testOrder() throws AccessDeniedException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("nested/again/jcr:primaryType", "oak:Unstructured");
+        params.put("nested/again/prop", "x");
+        params.put("nested/jcr:mixinTypes", "mix:title");
+        params.put("nested/jcr:primaryType", "nt:unstructured");
+        params.put("nested/old@Delete", "");
+        params.put("nested/title", "y");
+        params.put("age", "42");
+        params.put("old@Delete", "");
+
+        UpdatePlan plan = plan(params, false);
+        // the deletes, node types and then writes, each with the nodes top down
+        List<String> expected = new ArrayList<>();
+        expected.add("DELETE /old");
+        expected.add("DELETE /nested/old");
+        expected.add("PRIMARY_TYPE /nested/jcr:primaryType");
+        expected.add("MIXINS /nested/jcr:mixinTypes");
+        expected.add("PRIMARY_TYPE /nested/again/jcr:primaryType");
+        expected.add("WRITE /age");
+        expected.add("WRITE /nested/title");
+        expected.add("WRITE /nested/again/prop");
+        assertEquals(expected, describe(plan));
+
+        assertEquals(3, plan.getNodeCount());
+        assertEquals(2, plan.getDeleteCount());
+        assertEquals(3, plan.getNodeTypeCount());
+        assertEquals(3, plan.getWriteCount());
+    }
+
+    @Test
+    public void testNodeTypesBeforeWrites() throws AccessDeniedException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("a/prop", "x");
+        params.put("a/b/jcr:primaryType", "nt:unstructured");
+        params.put("a/b/c/jcr:mixinTypes", "mix:title");
+
+        // a write on a node is not applied before the node types of its descendants
+        List<String> expected = new ArrayList<>();
+        expected.add("PRIMARY_TYPE /a/b/jcr:primaryType");
+        expected.add("MIXINS /a/b/c/jcr:mixinTypes");
+        expected.add("WRITE /a/prop");
+        assertEquals(expected, describe(plan(params, false)));
+    }
+
+    @Test
+    public void testDeletedBeforeWrite() throws AccessDeniedException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("prop@Delete", "");
+        params.put("prop", "x");
+        params.put("other", "y");
+
+        UpdatePlan plan = plan(params, false);
+        List<Step> steps = plan.getSteps();
+        assertEquals(3, steps.size());
+        assertEquals("DELETE /prop", describe(plan).get(0));
+        for (Step step : steps) {
+            if (step.getAction() == UpdatePlan.Action.WRITE) {
+                // only the deleted property is known to be gone
+                assertEquals("/prop".equals(step.getProperty().getPath()), step.isAbsent());
+            }
+        }
+    }
+
+    @Test
+    public void testSpecialProperties() throws AccessDeniedException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("pwd", "secret");
+        params.put("pwdConfirm", "secret");
+        params.put("groupId", "g");
+        params.put("name", "n");
+
+        List<String> userSteps = describe(plan(params, false));
+        assertFalse(userSteps.contains("WRITE /pwd"));
+        assertTrue(userSteps.contains("WRITE /groupId"));
+        assertTrue(userSteps.contains("WRITE /name"));
+
+        List<String> groupSteps = describe(plan(params, true));
+        assertTrue(groupSteps.contains("WRITE /pwd"));
+        assertFalse(groupSteps.contains("WRITE /groupId"));
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void testRootPrimaryType() throws AccessDeniedException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("jcr:primaryType", "nt:unstructured");
+        plan(params, true);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the bytes allocated per read of the members of a large group
+ * when the paths are concatenated for every member versus the shared paths
+ * of the AuthorizableResourceProvider.
+ * <p>
+ * Only runs when the "benchmark" system property is true, for example:
+ * <code>mvn test -Dtest=MembershipPathsBenchmarkTest -Dbenchmark=true</code>
+ * </p>
+ */
+public class MembershipPathsBenchmarkTest {
+
+    private static final int MEMBERS = 10000;
+    private static final int READS = 200;
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private TestProvider paths;
+    private String[] memberIds;
+
+    @Before
+    public void setup() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        paths = new TestProvider();
+        memberIds = new String[MEMBERS];
+        for (int i = 0; i < MEMBERS; i++) {
+            memberIds[i] = "user" + i;
+        }
+    }
+
+    /**
+     * What AuthorizableValueMap did for each read before
+     */
+    private String[] concatenated() {
+        List<String> results = new ArrayList<>();
+        for (String id : memberIds) {
+            results.add(paths.getUserPrefix() + id);
+        }
+        return results.toArray(new String[results.size()]);
+    }
+
+    private String[] shared() {
+        List<String> results = new ArrayList<>();
+        for (String id : memberIds) {
+            results.add(paths.getUserPath(id));
+        }
+        return results.toArray(new String[results.size()]);
+    }
+
+    @Test
+    public void testAllocatedBytesPerRead() {
+        assertEquals(concatenated().length, shared().length);
+
+        // warm up
+        for (int i = 0; i < READS; i++) {
+            concatenated();
+            shared();
+        }
+
+        long concatenatedBytes = allocatedBytesPerRead(this::concatenated);
+        long sharedBytes = allocatedBytesPerRead(this::shared);
+        System.out.println(String.format("Members of a group with %d members, bytes allocated per read: concatenated=%d, shared=%d (%.1f%%)",
+                MEMBERS, concatenatedBytes, sharedBytes, 100.0 * sharedBytes / concatenatedBytes));
+        assertTrue(sharedBytes < concatenatedBytes);
+    }
+
+    private long allocatedBytesPerRead(Runnable read) {
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < READS; i++) {
+            read.run();
+        }
+        return (threadBean.getThreadAllocatedBytes(threadId) - before) / READS;
+    }
+
+    /**
+     * Gives access to the activate method
+     */
+    private static final class TestProvider extends AuthorizableResourceProvider {
+        private TestProvider() {
+            activate(new Config() {
+                @Override
+                public Class<? extends Annotation> annotationType() {
+                    return Config.class;
+                }
+
+                @Override
+                public String provider_root() {
+                    return DEFAULT_SYSTEM_USER_MANAGER_PATH;
+                }
+
+                @Override
+                public boolean resources_for_nested_properties() {
+                    return false;
+                }
+            });
+        }
+    }
+
+}
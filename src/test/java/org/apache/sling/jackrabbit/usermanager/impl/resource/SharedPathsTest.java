@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jackrabbit.usermanager.impl.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.sling.jackrabbit.usermanager.impl.resource.AuthorizableResourceProvider.SharedPaths;
+import org.junit.Test;
+
+/**
+ * Checks that the shared user and group paths stay bounded
+ */
+public class SharedPathsTest {
+
+    private static final String PREFIX = "/system/userManager/user/";
+
+    @Test
+    public void testShared() {
+        SharedPaths paths = new SharedPaths(10);
+        String path = paths.get(PREFIX, "alice");
+        assertEquals(PREFIX + "alice", path);
+        assertSame(path, paths.get(PREFIX, "alice"));
+    }
+
+    @Test
+    public void testBoundedWithoutEviction() {
+        SharedPaths paths = new SharedPaths(2);
+        String alice = paths.get(PREFIX, "alice");
+        String bob = paths.get(PREFIX, "bob");
+
+        // ids beyond the limit are not shared and do not evict the others
+        String carol = paths.get(PREFIX, "carol");
+        assertEquals(PREFIX + "carol", carol);
+        assertNotSame(carol, paths.get(PREFIX, "carol"));
+        assertEquals(2, paths.size());
+        assertSame(alice, paths.get(PREFIX, "alice"));
+        assertSame(bob, paths.get(PREFIX, "bob"));
+
+        // there is room again after clearing
+        paths.clear();
+        carol = paths.get(PREFIX, "carol");
+        assertSame(carol, paths.get(PREFIX, "carol"));
+        assertEquals(1, paths.size());
+    }
+
+    @Test
+    public void testConcurrentGet() throws InterruptedException {
+        SharedPaths paths = new SharedPaths(100);
+        String[] seen = new String[8];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> seen[index] = paths.get(PREFIX, "alice"));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // every thread gets the shared instance once it is remembered
+        String shared = paths.get(PREFIX, "alice");
+        for (String path : seen) {
+            assertEquals(shared, path);
+        }
+        assertEquals(1, paths.size());
+    }
+
+}
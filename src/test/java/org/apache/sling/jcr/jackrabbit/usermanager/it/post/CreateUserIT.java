@@ -23,9 +23,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Dictionary;
 import java.util.List;
 
+import javax.inject.Inject;
 import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.servlet.http.HttpServletResponse;
@@ -34,12 +38,15 @@ import org.apache.http.NameValuePair;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.jackrabbit.oak.spi.security.user.util.PasswordUtil;
 import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.jackrabbit.usermanager.CreateUser;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.ops4j.pax.exam.junit.PaxExam;
 import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
 import org.ops4j.pax.exam.spi.reactors.PerClass;
+import org.osgi.framework.BundleContext;
 
 /**
  * Tests for the 'createUser' Sling Post Operation
@@ -48,6 +55,13 @@ import org.ops4j.pax.exam.spi.reactors.PerClass;
 @ExamReactorStrategy(PerClass.class)
 public class CreateUserIT extends UserManagerClientTestSupport {
 
+    private static final String CREATE_USER_PID = "org.apache.sling.jackrabbit.usermanager.impl.post.CreateUserServlet";
+
+    private static final String SELF_REGISTRATION_ENABLED = "self.registration.enabled";
+
+    @Inject
+    protected BundleContext bundleContext;
+
     /*
         <form action="/system/userManager/user.create.html" method="POST">
            <div>Name: <input type="text" name=":name" value="testUser" /></div>
@@ -223,6 +237,119 @@ public class CreateUserIT extends UserManagerClientTestSupport {
         assertFalse(jsonObj.containsKey("pwdConfirm"));
     }
 
+    /**
+     * Test creating a user with a password that was already hashed
+     */
+    @Test
+    public void testCreateUserWithPasswordHash() throws IOException, JsonException {
+        testUserId = "testUser" + getNextInt();
+        String postUrl = String.format("%s/system/userManager/user.create.html", baseServerUri);
+        final List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair(":name", testUserId));
+        postParams.add(new BasicNameValuePair("marker", testUserId));
+        postParams.add(new BasicNameValuePair("pwdHash", buildPasswordHash("testPwd")));
+        final Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_OK, postParams, null);
+
+        // the hash is not stored as a property
+        String getUrl = String.format("%s/system/userManager/user/%s.json", baseServerUri, testUserId);
+        final String json = getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK);
+        assertNotNull(json);
+        final JsonObject jsonObj = parseJson(json);
+        assertEquals(testUserId, jsonObj.getString("marker"));
+        assertFalse(jsonObj.containsKey("pwdHash"));
+
+        // the user can log in with the password the hash was built from
+        final Credentials newUserCreds = new UsernamePasswordCredentials(testUserId, "testPwd");
+        final String getUrl2 = String.format("%s/system/sling/info.sessionInfo.json", baseServerUri);
+        final String json2 = getAuthenticatedContent(newUserCreds, getUrl2, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK);
+        assertNotNull(json2);
+        final JsonObject jsonObj2 = parseJson(json2);
+        assertEquals(testUserId, jsonObj2.getString("userID"));
+    }
+
+    /**
+     * Test that a plain text password is not accepted as a password hash
+     */
+    @Test
+    public void testCreateUserWithPlainTextPasswordHash() throws IOException {
+        String postUrl = String.format("%s/system/userManager/user.create.html", baseServerUri);
+
+        String userId = "testUser" + getNextInt();
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair(":name", userId));
+        postParams.add(new BasicNameValuePair("pwdHash", "testPwd"));
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, postParams, null);
+
+        // the user was not created
+        String getUrl = String.format("%s/system/userManager/user/%s.json", baseServerUri, userId);
+        assertAuthenticatedHttpStatus(creds, getUrl, HttpServletResponse.SC_NOT_FOUND, null);
+    }
+
+    /**
+     * Test that a password hash can not be submitted together with a password
+     */
+    @Test
+    public void testCreateUserWithPasswordAndPasswordHash() throws IOException {
+        String postUrl = String.format("%s/system/userManager/user.create.html", baseServerUri);
+
+        String userId = "testUser" + getNextInt();
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair(":name", userId));
+        postParams.add(new BasicNameValuePair("pwd", "testPwd"));
+        postParams.add(new BasicNameValuePair("pwdConfirm", "testPwd"));
+        postParams.add(new BasicNameValuePair("pwdHash", buildPasswordHash("testPwd")));
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, postParams, null);
+    }
+
+    /**
+     * Test that only user administrators can submit a password hash, even
+     * when self-registration is enabled
+     */
+    @Test
+    public void testSelfRegistrationWithPasswordHash() throws IOException {
+        testUserId2 = createTestUser();
+
+        org.osgi.service.cm.Configuration configuration = cm.getConfiguration(CREATE_USER_PID, null);
+        Dictionary<String, Object> originalServiceProps = configuration.getProperties();
+        try {
+            configuration.update(replaceConfigProp(originalServiceProps, SELF_REGISTRATION_ENABLED, Boolean.TRUE));
+            new WaitForServiceUpdated(5000, 100, bundleContext, CreateUser.class,
+                    SELF_REGISTRATION_ENABLED, Boolean.TRUE);
+
+            String postUrl = String.format("%s/system/userManager/user.create.html", baseServerUri);
+            String userId = "testUser" + getNextInt();
+            List<NameValuePair> postParams = new ArrayList<>();
+            postParams.add(new BasicNameValuePair(":name", userId));
+            postParams.add(new BasicNameValuePair("pwdHash", buildPasswordHash("testPwd")));
+            Credentials creds = new UsernamePasswordCredentials(testUserId2, "testPwd");
+            assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_FORBIDDEN, postParams, null);
+
+            // the same user can register with a password
+            testUserId3 = "testUser" + getNextInt();
+            postParams.clear();
+            postParams.add(new BasicNameValuePair(":name", testUserId3));
+            postParams.add(new BasicNameValuePair("pwd", "testPwd"));
+            postParams.add(new BasicNameValuePair("pwdConfirm", "testPwd"));
+            assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_OK, postParams, null);
+        } finally {
+            //put the original config back
+            configuration.update(originalServiceProps);
+            new WaitForServiceUpdated(5000, 100, bundleContext, CreateUser.class, SELF_REGISTRATION_ENABLED,
+                    originalServiceProps == null ? null : originalServiceProps.get(SELF_REGISTRATION_ENABLED));
+        }
+    }
+
+    private static String buildPasswordHash(String password) {
+        try {
+            return PasswordUtil.buildPasswordHash(password);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Test for SLING-1642 to verify that user self-registration by the anonymous
      * user is not allowed by default.
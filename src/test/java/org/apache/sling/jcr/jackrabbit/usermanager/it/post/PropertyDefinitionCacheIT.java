@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.usermanager.it.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.nodetype.NodeTypeTemplate;
+import javax.jcr.nodetype.PropertyDefinitionTemplate;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonValue.ValueType;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.jcr.jackrabbit.usermanager.it.Retry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+/**
+ * Tests that the cached property definitions used for untyped property
+ * writes follow changes of the node type definitions
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class PropertyDefinitionCacheIT extends UserManagerClientTestSupport {
+
+    @Inject
+    protected SlingRepository repository;
+
+    @Test
+    public void testNodeTypeChangeInvalidates() throws IOException, JsonException, RepositoryException {
+        String nodeTypeName = "userManagerProfile" + getNextInt();
+        registerNodeType(nodeTypeName, false);
+
+        // the node type does not define the property, so it is written as a string
+        String userId = createUserWithNestedProperty(nodeTypeName);
+        JsonObject jsonObj = getNested(userId);
+        assertEquals(ValueType.STRING, jsonObj.get("longProp").getValueType());
+        assertEquals("1234", jsonObj.getString("longProp"));
+        // no content may conflict with the changed definition
+        deleteUser(userId);
+
+        // now the node type defines the property as a long, which is used
+        // as soon as the cache has seen the change
+        registerNodeType(nodeTypeName, true);
+        new Retry(10000, 200) {
+            @Override
+            protected boolean exec() {
+                try {
+                    String id = createUserWithNestedProperty(nodeTypeName);
+                    JsonObject nested = getNested(id);
+                    if (nested.get("longProp").getValueType() != ValueType.NUMBER) {
+                        deleteUser(id);
+                        return false;
+                    }
+                    testUserId = id;
+                    assertEquals(1234L, nested.getJsonNumber("longProp").longValue());
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private void registerNodeType(String nodeTypeName, boolean withLongProp) throws RepositoryException {
+        Session adminSession = repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+        try {
+            NodeTypeManager nodeTypeManager = adminSession.getWorkspace().getNodeTypeManager();
+            NodeTypeTemplate template = nodeTypeManager.createNodeTypeTemplate();
+            template.setName(nodeTypeName);
+            template.setDeclaredSuperTypeNames(new String[] {JcrConstants.NT_UNSTRUCTURED});
+            if (withLongProp) {
+                PropertyDefinitionTemplate propDef = nodeTypeManager.createPropertyDefinitionTemplate();
+                propDef.setName("longProp");
+                propDef.setRequiredType(PropertyType.LONG);
+                @SuppressWarnings("unchecked")
+                List<PropertyDefinitionTemplate> propDefs = template.getPropertyDefinitionTemplates();
+                propDefs.add(propDef);
+            }
+            nodeTypeManager.registerNodeType(template, true);
+        } finally {
+            adminSession.logout();
+        }
+    }
+
+    private String createUserWithNestedProperty(String nodeTypeName) throws IOException {
+        String postUrl = String.format("%s/system/userManager/user.create.html", baseServerUri);
+
+        String userId = "testUser" + getNextInt();
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair(":name", userId));
+        postParams.add(new BasicNameValuePair("pwd", "testPwd"));
+        postParams.add(new BasicNameValuePair("pwdConfirm", "testPwd"));
+        postParams.add(new BasicNameValuePair("nested/jcr:primaryType", nodeTypeName));
+        postParams.add(new BasicNameValuePair("nested/longProp", "1234"));
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_OK, postParams, null);
+        return userId;
+    }
+
+    private JsonObject getNested(String userId) throws IOException, JsonException {
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        String getUrl = String.format("%s/system/userManager/user/%s.json", baseServerUri, userId);
+        String json = getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK);
+        assertNotNull(json);
+        String path = parseJson(json).getString("path");
+        getUrl = String.format("%s%s/nested.json", baseServerUri, path);
+        json = getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK);
+        assertNotNull(json);
+        return parseJson(json);
+    }
+
+    private void deleteUser(String userId) throws IOException {
+        String postUrl = String.format("%s/system/userManager/user/%s.delete.html", baseServerUri, userId);
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_OK, Collections.emptyList(), null);
+    }
+
+}
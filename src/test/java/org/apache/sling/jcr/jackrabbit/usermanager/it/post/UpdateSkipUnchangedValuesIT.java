@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.jackrabbit.usermanager.it.post;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+/**
+ * Tests for the 'updateAuthorizable' Sling Post Operation when the
+ * unchanged property values are not written again
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class UpdateSkipUnchangedValuesIT extends UserManagerClientTestSupport {
+
+    @Override
+    protected Option[] additionalOptions() {
+        return composite(super.additionalOptions())
+                .add(newConfiguration("org.apache.sling.jackrabbit.usermanager.impl.post.UpdateUserServlet")
+                        .put("servlet.post.skipUnchangedValues", true).asOption())
+                .add(newConfiguration("org.apache.sling.jackrabbit.usermanager.impl.post.UpdateGroupServlet")
+                        .put("servlet.post.skipUnchangedValues", true).asOption())
+                .getOptions();
+    }
+
+    @Test
+    public void testUpdateUserUnchangedValues() throws IOException, JsonException {
+        testUserId = createTestUser();
+
+        String postUrl = String.format("%s/system/userManager/user/%s.update.json", baseServerUri, testUserId);
+        assertUnchanged(postUrl);
+
+        // the values are stored either way
+        String getUrl = String.format("%s/system/userManager/user/%s.json", baseServerUri, testUserId);
+        assertValues(getUrl);
+    }
+
+    @Test
+    public void testUpdateGroupUnchangedValues() throws IOException, JsonException {
+        testGroupId = createTestGroup();
+
+        String postUrl = String.format("%s/system/userManager/group/%s.update.json", baseServerUri, testGroupId);
+        assertUnchanged(postUrl);
+
+        String getUrl = String.format("%s/system/userManager/group/%s.json", baseServerUri, testGroupId);
+        assertValues(getUrl);
+    }
+
+    private void assertUnchanged(String postUrl) throws IOException, JsonException {
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair("displayName", "My Test Authorizable"));
+        postParams.add(new BasicNameValuePair("url", "http://www.apache.org"));
+        postParams.add(new BasicNameValuePair("multi", "one"));
+        postParams.add(new BasicNameValuePair("multi", "two"));
+        JsonObject jsonObj = parseJson(getAuthenticatedPostContent(creds, postUrl, CONTENT_TYPE_JSON, postParams, HttpServletResponse.SC_OK));
+        // nothing to compare with the first time
+        assertEquals(0, jsonObj.getInt("unchangedCount"));
+        assertEquals(0, countChanges(jsonObj, "unchanged", null));
+        assertEquals(3, countChanges(jsonObj, "modified", null));
+
+        // post the same values again, except for the url
+        postParams.set(1, new BasicNameValuePair("url", "http://sling.apache.org"));
+        jsonObj = parseJson(getAuthenticatedPostContent(creds, postUrl, CONTENT_TYPE_JSON, postParams, HttpServletResponse.SC_OK));
+        assertEquals(2, jsonObj.getInt("unchangedCount"));
+        assertEquals(1, countChanges(jsonObj, "unchanged", "/displayName"));
+        assertEquals(1, countChanges(jsonObj, "unchanged", "/multi"));
+        assertEquals(1, countChanges(jsonObj, "modified", "/url"));
+        assertEquals(1, countChanges(jsonObj, "modified", null));
+
+        // the same values in a different order are a change
+        postParams.clear();
+        postParams.add(new BasicNameValuePair("multi", "two"));
+        postParams.add(new BasicNameValuePair("multi", "one"));
+        jsonObj = parseJson(getAuthenticatedPostContent(creds, postUrl, CONTENT_TYPE_JSON, postParams, HttpServletResponse.SC_OK));
+        assertEquals(0, jsonObj.getInt("unchangedCount"));
+        assertEquals(1, countChanges(jsonObj, "modified", "/multi"));
+    }
+
+    private void assertValues(String getUrl) throws IOException, JsonException {
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        JsonObject jsonObj = parseJson(getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK));
+        assertEquals("My Test Authorizable", jsonObj.getString("displayName"));
+        assertEquals("http://sling.apache.org", jsonObj.getString("url"));
+        JsonArray multi = jsonObj.getJsonArray("multi");
+        assertEquals(2, multi.size());
+        assertEquals("two", multi.getString(0));
+        assertEquals("one", multi.getString(1));
+    }
+
+    /**
+     * Counts the changes of the response of the type, and optionally with an
+     * argument ending with the suffix
+     */
+    private static int countChanges(JsonObject jsonObj, String type, String argumentSuffix) {
+        JsonArray changes = jsonObj.getJsonArray("changes");
+        assertTrue(changes != null);
+        int count = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            JsonObject change = changes.getJsonObject(i);
+            if (type.equals(change.getString("type"))
+                    && (argumentSuffix == null || change.getString("argument").endsWith(argumentSuffix))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -24,9 +24,12 @@ import static org.junit.Assert.assertNull;
 import static org.ops4j.pax.exam.CoreOptions.composite;
 
 import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
+import javax.json.JsonArray;
 import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.servlet.http.HttpServletResponse;
@@ -35,6 +38,7 @@ import org.apache.http.NameValuePair;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.jackrabbit.oak.spi.security.user.util.PasswordUtil;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.ops4j.pax.exam.Option;
@@ -90,6 +94,83 @@ public class UpdateUserIT extends UserManagerClientTestSupport {
         assertEquals("value", jsonObj.getString("param"));
     }
 
+    /**
+     * Test that the nested nodes of an update are created once each, with
+     * the node types posted for them, intermediate nodes included
+     */
+    @Test
+    public void testUpdateUserNestedNodeTypes() throws IOException, JsonException {
+        testUserId = createTestUser();
+
+        String postUrl = String.format("%s/system/userManager/user/%s.update.json", baseServerUri, testUserId);
+
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair("nested/deeper/deepest/jcr:primaryType", "nt:unstructured"));
+        postParams.add(new BasicNameValuePair("nested/deeper/deepest/prop", "x"));
+        postParams.add(new BasicNameValuePair("nested/deeper/jcr:mixinTypes", "mix:title"));
+        postParams.add(new BasicNameValuePair("nested/deeper/jcr:title", "Deeper"));
+        postParams.add(new BasicNameValuePair("nested/jcr:primaryType", "oak:Unstructured"));
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        String json = getAuthenticatedPostContent(creds, postUrl, CONTENT_TYPE_JSON, postParams, HttpServletResponse.SC_OK);
+        JsonObject jsonObj = parseJson(json);
+
+        // every new node is reported once
+        JsonArray changes = jsonObj.getJsonArray("changes");
+        assertNotNull(changes);
+        List<String> created = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            JsonObject change = changes.getJsonObject(i);
+            if ("created".equals(change.getString("type"))) {
+                created.add(change.getString("argument"));
+            }
+        }
+        assertEquals(created.toString(), 3, created.size());
+        assertEquals(created.toString(), 3, new HashSet<>(created).size());
+
+        // fetch the nested nodes via regular GET servlet
+        String getUrl = String.format("%s/system/userManager/user/%s.json", baseServerUri, testUserId);
+        String path = parseJson(getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK)).getString("path");
+        getUrl = String.format("%s%s/nested.infinity.json", baseServerUri, path);
+        jsonObj = parseJson(getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK));
+        assertEquals("oak:Unstructured", jsonObj.getString("jcr:primaryType"));
+        JsonObject deeper = jsonObj.getJsonObject("deeper");
+        assertEquals("mix:title", deeper.getJsonArray("jcr:mixinTypes").getString(0));
+        assertEquals("Deeper", deeper.getString("jcr:title"));
+        JsonObject deepest = deeper.getJsonObject("deepest");
+        assertEquals("nt:unstructured", deepest.getString("jcr:primaryType"));
+        assertEquals("x", deepest.getString("prop"));
+    }
+
+    /**
+     * Test that the update does not treat a pwdHash parameter as the password,
+     * it is only accepted when creating a user and otherwise stored as a property
+     */
+    @Test
+    public void testUpdateUserPasswordHash() throws IOException, JsonException, NoSuchAlgorithmException {
+        testUserId = createTestUser();
+
+        String postUrl = String.format("%s/system/userManager/user/%s.update.html", baseServerUri, testUserId);
+
+        String hash = PasswordUtil.buildPasswordHash("testNewPwd");
+        List<NameValuePair> postParams = new ArrayList<>();
+        postParams.add(new BasicNameValuePair("pwdHash", hash));
+        Credentials creds = new UsernamePasswordCredentials("admin", "admin");
+        assertAuthenticatedPostStatus(creds, postUrl, HttpServletResponse.SC_OK, postParams, null);
+
+        String getUrl = String.format("%s/system/userManager/user/%s.json", baseServerUri, testUserId);
+        String json = getAuthenticatedContent(creds, getUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK);
+        assertNotNull(json);
+        JsonObject jsonObj = parseJson(json);
+        assertEquals(hash, jsonObj.getString("pwdHash"));
+
+        // the password did not change
+        Credentials userCreds = new UsernamePasswordCredentials(testUserId, "testPwd");
+        String sessionInfoUrl = String.format("%s/system/sling/info.sessionInfo.json", baseServerUri);
+        json = getAuthenticatedContent(userCreds, sessionInfoUrl, CONTENT_TYPE_JSON, HttpServletResponse.SC_OK);
+        assertNotNull(json);
+        assertEquals(testUserId, parseJson(json).getString("userID"));
+    }
+
     /**
      * SLING-7901 test to verify update user delete nested property functionality
      */
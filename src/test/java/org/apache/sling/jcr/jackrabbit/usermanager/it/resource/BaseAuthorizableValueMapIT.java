@@ -22,7 +22,9 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -729,14 +731,39 @@ public abstract class BaseAuthorizableValueMapIT extends BaseAuthorizableResourc
         vm2.putAll(Collections.singletonMap("another", "value"));
     }
 
+    /**
+     * The value map is created once per resource, so the properties it has
+     * read already are not read again by the next adaptTo call
+     */
+    @Test
+    public void testAdaptToReusesValueMap() throws LoginException, RepositoryException {
+        try (ResourceResolver resourceResolver = resourceResolverFactory.getResourceResolver(Collections.singletonMap(JcrResourceConstants.AUTHENTICATION_INFO_SESSION, adminSession))) {
+            Resource resource = resourceResolver.resolve(getResourcePath(user1));
+            assertNotNull(resource);
+            ValueMap vm = resource.adaptTo(ValueMap.class);
+            assertNotNull(vm);
+            String string1 = vm.get("string1", String.class);
+            assertSame(vm, resource.adaptTo(ValueMap.class));
+            assertSame(vm, resource.adaptTo(Map.class));
+            assertEquals(string1, resource.adaptTo(ValueMap.class).get("string1", String.class));
+
+            // a resource resolved again gets a value map of its own
+            Resource resource2 = resourceResolver.resolve(getResourcePath(user1));
+            assertNotSame(vm, resource2.adaptTo(ValueMap.class));
+        }
+    }
+
+    protected String getResourcePath(Authorizable a) throws RepositoryException {
+        if (a.isGroup()) {
+            return String.format("%s%s", userManagerPaths.getGroupPrefix(), a.getID());
+        } else {
+            return String.format("%s%s", userManagerPaths.getUserPrefix(), a.getID());
+        }
+    }
+
     protected ValueMap getValueMap(Authorizable a) throws LoginException, RepositoryException {
         try (ResourceResolver resourceResolver = resourceResolverFactory.getResourceResolver(Collections.singletonMap(JcrResourceConstants.AUTHENTICATION_INFO_SESSION, adminSession))) {
-            Resource resource;
-            if (a.isGroup()) {
-                resource = resourceResolver.resolve(String.format("%s%s", userManagerPaths.getGroupPrefix(), a.getID()));
-            } else {
-                resource = resourceResolver.resolve(String.format("%s%s", userManagerPaths.getUserPrefix(), a.getID()));
-            }
+            Resource resource = resourceResolver.resolve(getResourcePath(a));
             assertNotNull(resource);
             ValueMap vm = resource.adaptTo(ValueMap.class);
             assertNotNull(vm);
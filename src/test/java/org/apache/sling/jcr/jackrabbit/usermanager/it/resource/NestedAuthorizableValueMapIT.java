@@ -19,20 +19,15 @@
 package org.apache.sling.jcr.jackrabbit.usermanager.it.resource;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
 import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
 
-import java.util.Collections;
 import java.util.Map;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.sling.api.resource.LoginException;
-import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
-import org.apache.sling.jcr.resource.api.JcrResourceConstants;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.ops4j.pax.exam.Option;
@@ -62,19 +57,8 @@ public class NestedAuthorizableValueMapIT extends BaseAuthorizableValueMapIT {
     }
 
     @Override
-    protected ValueMap getValueMap(Authorizable a) throws LoginException, RepositoryException {
-        try (ResourceResolver resourceResolver = resourceResolverFactory.getResourceResolver(Collections.singletonMap(JcrResourceConstants.AUTHENTICATION_INFO_SESSION, adminSession))) {
-            Resource resource;
-            if (a.isGroup()) {
-                resource = resourceResolver.resolve(String.format("%s%s/nested", userManagerPaths.getGroupPrefix(), a.getID()));
-            } else {
-                resource = resourceResolver.resolve(String.format("%s%s/nested", userManagerPaths.getUserPrefix(), a.getID()));
-            }
-            assertNotNull(resource);
-            ValueMap vm = resource.adaptTo(ValueMap.class);
-            assertNotNull(vm);
-            return vm;
-        }
+    protected String getResourcePath(Authorizable a) throws RepositoryException {
+        return String.format("%s/nested", super.getResourcePath(a));
     }
 
     @Test